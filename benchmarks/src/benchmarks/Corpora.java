@@ -0,0 +1,39 @@
+package benchmarks;
+
+import structures.ParallelCorpus;
+
+/**
+ * Locates the corpora benchmarks run on. The data directory defaults to data/, relative to the
+ * working directory (the project root); set -Damdp.data=<path> to run from elsewhere.
+ */
+public class Corpora {
+    public static final String DATA = System.getProperty("amdp.data", "data");
+
+    /**
+     * Get the path of one half of a corpus.
+     *
+     * @param corpus Name of the corpus in data/corpus, e.g. "expert" or "full".
+     * @param language "english" or "machine".
+     * @return Path to the corpus file.
+     */
+    public static String path(String corpus, String language) {
+        return DATA + "/corpus/" + corpus + "_" + language + ".txt";
+    }
+
+    /**
+     * Load a corpus of data/corpus.
+     *
+     * @param corpus Name of the corpus, e.g. "expert" or "full".
+     * @return Parallel corpus of its English and machine halves.
+     */
+    public static ParallelCorpus load(String corpus) {
+        return new ParallelCorpus(path(corpus, "english"), path(corpus, "machine"));
+    }
+
+    /**
+     * Get the path of the raw labeled data.
+     */
+    public static String raw() {
+        return DATA + "/raw";
+    }
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import structures.ParallelCorpus;
+import structures.RawCorpusLoader;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Cost of loading a ParallelCorpus, from the corpus files of data/corpus and from the raw labeled
+ * data of data/raw.
+ */
+@State(Scope.Benchmark)
+public class CorpusBenchmark {
+    @Param({"expert", "full"})
+    public String corpus;
+
+    @Benchmark
+    public ParallelCorpus loadCorpus() {
+        return Corpora.load(this.corpus);
+    }
+
+    @Benchmark
+    public ParallelCorpus loadRaw() throws IOException {
+        Predicate<String> filter = this.corpus.equals("expert") ? RawCorpusLoader.SIMPLE : RawCorpusLoader.ALL;
+        return RawCorpusLoader.load(Corpora.raw(), filter);
+    }
+}
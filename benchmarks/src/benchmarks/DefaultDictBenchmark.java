@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import structures.DefaultDict;
+import structures.IntDoubleMap;
+
+/**
+ * Cost of DefaultDict.get on keys that are present (hit) and absent (miss), for a map of boxed
+ * Integer keys and Double values, against IntDoubleMap.getOrDefault on the same keys.
+ *
+ * A DefaultDict miss inserts the default value, so the miss benchmark removes the key again to
+ * keep the map unchanged; its cost includes that removal. IntDoubleMap misses do not insert.
+ */
+@State(Scope.Thread)
+public class DefaultDictBenchmark {
+    @Param({"16", "1024"})
+    public int size;
+
+    protected DefaultDict<Integer, Double> dict;
+    protected IntDoubleMap map;
+    protected int next;
+
+    @Setup
+    public void setUp() {
+        this.dict = new DefaultDict<>(0.0);
+        this.map = new IntDoubleMap(this.size);
+        for (int key = 0; key < this.size; key++) {
+            this.dict.put(key, (double) key);
+            this.map.put(key, key);
+        }
+        this.next = 0;
+    }
+
+    @Benchmark
+    public Double hit() {
+        this.next = (this.next + 1) % this.size;
+        return this.dict.get(this.next);
+    }
+
+    @Benchmark
+    public Double miss() {
+        this.next = (this.next + 1) % this.size;
+        Integer key = this.size + this.next;
+        Double value = this.dict.get(key);
+        this.dict.remove(key);
+        return value;
+    }
+
+    @Benchmark
+    public double primitiveHit() {
+        this.next = (this.next + 1) % this.size;
+        return this.map.getOrDefault(this.next, 0.0);
+    }
+
+    @Benchmark
+    public double primitiveMiss() {
+        this.next = (this.next + 1) % this.size;
+        return this.map.getOrDefault(this.size + this.next, 0.0);
+    }
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+import language.MachineLanguage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collection;
+
+/**
+ * Cost of enumerating the machine language up to a maximum expression length, both as the set of
+ * canonical strings and as the lazy stream of token id arrays.
+ */
+@State(Scope.Benchmark)
+public class EnumerateBenchmark {
+    @Param({"2", "4", "6", "8"})
+    public int maxLength;
+
+    @Benchmark
+    public Collection<String> enumerate() {
+        return MachineLanguage.enumerate(this.maxLength);
+    }
+
+    @Benchmark
+    public long enumerator() {
+        return MachineLanguage.enumerator(this.maxLength).stream().count();
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import mt.IBM1;
+import mt.IBM2;
+import mt.IBMModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import structures.ParallelCorpus;
+
+/**
+ * Cost of a single EM iteration (E - Step and M - Step) of IBM Model 1 and IBM Model 2.
+ *
+ * Models start from their initial (untrained) parameters and keep training across invocations;
+ * an iteration costs the same whatever the parameters are.
+ */
+@State(Scope.Benchmark)
+public class TrainingBenchmark {
+    @Param({"expert", "full"})
+    public String corpus;
+
+    @Param({"IBM1", "IBM2"})
+    public String model;
+
+    protected IBMModel ibm;
+
+    @Setup
+    public void setUp() {
+        ParallelCorpus parallelCorpus = Corpora.load(this.corpus);
+        this.ibm = this.model.equals("IBM1") ? new IBM1(parallelCorpus, 0) : new IBM2(parallelCorpus, 0);
+    }
+
+    @Benchmark
+    public void train() {
+        this.ibm.train();
+    }
+}
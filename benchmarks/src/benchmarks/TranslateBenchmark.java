@@ -0,0 +1,51 @@
+package benchmarks;
+
+import language.LanguageExpression;
+import language.NaturalLanguage;
+import mt.IBM1;
+import mt.IBM2;
+import mt.MachineTranslator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import structures.ParallelCorpus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latency of translating a single English command with a trained IBM Model 1 or IBM Model 2.
+ * Invocations cycle through the source sentences of the corpus the model was trained on.
+ */
+@State(Scope.Thread)
+public class TranslateBenchmark {
+    @Param({"expert", "full"})
+    public String corpus;
+
+    @Param({"IBM1", "IBM2"})
+    public String model;
+
+    protected MachineTranslator translator;
+    protected List<LanguageExpression> sources;
+    protected int next;
+
+    @Setup
+    public void setUp() {
+        ParallelCorpus parallelCorpus = Corpora.load(this.corpus);
+        this.translator = this.model.equals("IBM1") ? new IBM1(parallelCorpus, 30) : new IBM2(parallelCorpus, 10);
+        this.sources = new ArrayList<>(parallelCorpus.size());
+        for (int n = 0; n < parallelCorpus.size(); n++) {
+            this.sources.add(new NaturalLanguage(parallelCorpus.get(n).getSourceWords()));
+        }
+        this.next = 0;
+    }
+
+    @Benchmark
+    public LanguageExpression translate() {
+        LanguageExpression source = this.sources.get(this.next);
+        this.next = (this.next + 1) % this.sources.size();
+        return this.translator.translate(source);
+    }
+}
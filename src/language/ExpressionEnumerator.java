@@ -0,0 +1,253 @@
+package language;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy enumerator over the valid expressions of the machine language, in canonical form. An
+ * expression is a multiset of propositional functions, subject to the constraints below; it is
+ * produced as an array of token ids in non-decreasing order, where tokens are numbered in
+ * alphabetical order, so that joining the tokens of an array gives the canonical (sorted) string.
+ *
+ * Constraints (as enforced by MachineLanguage.enumerate):
+ *      - exactly one agentInRoom
+ *      - at most two blockInRoom
+ *      - at most three color predicates (is...)
+ *      - even length, no longer than maxLength
+ *
+ * Constraints are applied while the multisets are generated, so no invalid expression is ever
+ * built; branches that can no longer reach a valid expression are cut as soon as they are entered.
+ */
+public class ExpressionEnumerator implements Iterator<int[]> {
+    /* Classes of propositional functions, each with its own count limits */
+    public static final int AGENT = 0;
+    public static final int BLOCK = 1;
+    public static final int COLOR = 2;
+    public static final int OTHER = 3;
+    protected static final int[] MIN_COUNTS = {1, 0, 0, 0};
+    protected static final int[] MAX_COUNTS = {1, 2, 3, Integer.MAX_VALUE};
+
+    protected final String[] tokens;
+    protected final int[] classes;
+    /* Largest token id of each class, or -1 if the class has no token */
+    protected final int[] lastOfClass;
+    protected final int maxLength;
+
+    /* Current multiset, as a non-decreasing sequence of token ids */
+    protected final int[] sequence;
+    protected int length;
+    protected final int[] classCounts;
+    protected int[] next;
+    protected boolean exhausted;
+
+    /**
+     * Instantiate an ExpressionEnumerator over the given propositional functions.
+     *
+     * @param propFuncs Propositional functions expressions are built from.
+     * @param maxLength Maximum number of propositional functions in an expression.
+     */
+    public ExpressionEnumerator(Collection<String> propFuncs, int maxLength) {
+        this.tokens = propFuncs.stream().distinct().sorted().toArray(String[]::new);
+        this.classes = new int[this.tokens.length];
+        this.lastOfClass = new int[MIN_COUNTS.length];
+        Arrays.fill(this.lastOfClass, -1);
+        for (int id = 0; id < this.tokens.length; id++) {
+            this.classes[id] = classOf(this.tokens[id]);
+            this.lastOfClass[this.classes[id]] = id;
+        }
+        this.maxLength = maxLength;
+        this.sequence = new int[Math.max(maxLength, 0)];
+        this.length = 0;
+        this.classCounts = new int[MIN_COUNTS.length];
+        this.exhausted = false;
+    }
+
+    /**
+     * Get the class of a propositional function.
+     *
+     * @param propFunc Name of the propositional function.
+     * @return AGENT, BLOCK, COLOR or OTHER.
+     */
+    public static int classOf(String propFunc) {
+        if (propFunc.equals("agentInRoom")) {
+            return AGENT;
+        }
+        if (propFunc.equals("blockInRoom")) {
+            return BLOCK;
+        }
+        if (propFunc.contains("is")) {
+            return COLOR;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Get the smallest number of propositional functions of a class a valid expression holds.
+     *
+     * @param tokenClass AGENT, BLOCK, COLOR or OTHER.
+     */
+    public static int minCount(int tokenClass) {
+        return MIN_COUNTS[tokenClass];
+    }
+
+    /**
+     * Get the largest number of propositional functions of a class a valid expression holds.
+     *
+     * @param tokenClass AGENT, BLOCK, COLOR or OTHER.
+     * @return Limit, or Integer.MAX_VALUE if the class is unlimited.
+     */
+    public static int maxCount(int tokenClass) {
+        return MAX_COUNTS[tokenClass];
+    }
+
+    /**
+     * Get the tokens, indexed by token id (i.e. in alphabetical order).
+     *
+     * @return Unmodifiable list of the propositional functions.
+     */
+    public List<String> getTokens() {
+        return Arrays.asList(this.tokens.clone());
+    }
+
+    /**
+     * Translate an array of token ids to the canonical string of the expression.
+     *
+     * @param ids Token ids, as produced by this enumerator.
+     * @return Space separated propositional functions.
+     */
+    public String toExpression(int[] ids) {
+        StringBuilder sb = new StringBuilder();
+        for (int id : ids) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(this.tokens[id]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get a sequential stream over the remaining expressions.
+     *
+     * @return Stream of token id arrays, in canonical order.
+     */
+    public Stream<int[]> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == null && !this.exhausted) {
+            this.next = this.advance();
+            this.exhausted = this.next == null;
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public int[] next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int[] current = this.next;
+        this.next = null;
+        return current;
+    }
+
+    /**
+     * Move to the next multiset (in depth-first, lexicographic order) that is a valid expression.
+     *
+     * @return Token ids of the expression, or null once all multisets have been visited.
+     */
+    protected int[] advance() {
+        while (this.step()) {
+            if (this.length % 2 == 0 && this.meetsMinimums()) {
+                return Arrays.copyOf(this.sequence, this.length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Move to the next multiset that can still be completed to a valid expression: extend the
+     * current one with its smallest admissible token, or else replace its last token with the
+     * next admissible one, backtracking as needed.
+     *
+     * @return False once the enumeration is complete.
+     */
+    protected boolean step() {
+        if (this.length < this.maxLength) {
+            int first = this.length == 0 ? 0 : this.sequence[this.length - 1];
+            int token = this.nextAdmissible(first);
+            if (token != -1) {
+                this.push(token);
+                return true;
+            }
+        }
+        while (this.length > 0) {
+            int last = this.pop();
+            int token = this.nextAdmissible(last + 1);
+            if (token != -1) {
+                this.push(token);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the smallest token id at or after from that can be appended to the current multiset
+     * without breaking a maximum, and after which every class minimum can still be met.
+     *
+     * @return Token id, or -1 if there is none.
+     */
+    protected int nextAdmissible(int from) {
+        for (int token = from; token < this.tokens.length; token++) {
+            int tokenClass = this.classes[token];
+            if (this.classCounts[tokenClass] >= MAX_COUNTS[tokenClass]) {
+                continue;
+            }
+            // Tokens only grow from here on, so classes entirely below token can no longer be added
+            boolean reachable = true;
+            for (int c = 0; c < MIN_COUNTS.length; c++) {
+                int missing = MIN_COUNTS[c] - this.classCounts[c] - (c == tokenClass ? 1 : 0);
+                if (missing > 0 && this.lastOfClass[c] < token) {
+                    reachable = false;
+                    break;
+                }
+            }
+            if (reachable) {
+                return token;
+            }
+        }
+        return -1;
+    }
+
+    protected boolean meetsMinimums() {
+        for (int c = 0; c < MIN_COUNTS.length; c++) {
+            if (this.classCounts[c] < MIN_COUNTS[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void push(int token) {
+        this.sequence[this.length++] = token;
+        this.classCounts[this.classes[token]]++;
+    }
+
+    protected int pop() {
+        int token = this.sequence[--this.length];
+        this.classCounts[this.classes[token]]--;
+        return token;
+    }
+}
@@ -14,57 +14,20 @@ public class MachineLanguage implements LanguageExpression {
         this.words = words;
     }
 
-    public static Collection<String> enumerate(int maxLength){
-        List<String> ret = new ArrayList<>();
-        int count = 1;
-        while(count <= maxLength) {
-            if(count == 1){
-                ret.addAll(propFuncs);
-            }
-            else{
-                int end = ret.size();
-                Set<String> toAdd = new HashSet<>();
-                for(int i=0;i < end;i++){
-                    String elt = ret.get(i);
-                    if(elt.split(" ").length > 1){
-                        continue;
-                    }
-                    final int finalCount = count;
-                    toAdd.addAll(ret.stream().filter(w -> w.split(" ").length == finalCount -1).map(w -> w + " " + elt).collect(Collectors.toSet()));
-                }
-                ret.addAll(toAdd);
-            }
-            count++;
-        }
-
-        Set<String> realRet = new HashSet<>();
-        realRet.addAll(ret);
-        realRet = realRet.stream().filter(c -> c.contains("blockInRoom") || c.contains("agentInRoom")).collect(Collectors.toSet());
-        realRet = realRet.stream().filter(c -> {
-            String[] words = c.split(" ");
-            long agents = Arrays.stream(words).filter(w -> w.equals("agentInRoom")).count();
-            return agents == 1;
-        }).collect(Collectors.toSet());
-        realRet = realRet.stream().filter(c -> {
-            String[] words = c.split(" ");
-            long blocks = Arrays.stream(words).filter(w -> w.equals("blockInRoom")).count();
-            return blocks <= 2;
-        }).collect(Collectors.toSet());
-        realRet = realRet.stream().filter(c -> {
-            String[] words = c.split(" ");
-            long agents = Arrays.stream(words).filter(w -> w.contains("is")).count();
-            return agents <= 3;
-        }).collect(Collectors.toSet());
-        realRet = realRet.stream().map(c -> {
-            String[] words = c.split(" ");
-            Arrays.sort(words);
-            StringBuilder sb = new StringBuilder();
-            Arrays.stream(words).forEach(w -> sb.append(w + " "));
-            return sb.toString().trim();
-        }).collect(Collectors.toSet());
+    /**
+     * Lazily enumerate the valid expressions of at most maxLength propositional functions, in
+     * canonical form (see ExpressionEnumerator).
+     *
+     * @param maxLength Maximum number of propositional functions in an expression.
+     * @return Enumerator over the expressions, as arrays of token ids.
+     */
+    public static ExpressionEnumerator enumerator(int maxLength){
+        return new ExpressionEnumerator(propFuncs, maxLength);
+    }
 
-        realRet = realRet.stream().filter(c -> c.split(" ").length % 2 == 0).collect(Collectors.toSet());
-        return realRet;
+    public static Collection<String> enumerate(int maxLength){
+        ExpressionEnumerator enumerator = enumerator(maxLength);
+        return enumerator.stream().map(enumerator::toExpression).collect(Collectors.toSet());
     }
 
     @Override
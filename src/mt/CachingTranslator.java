@@ -0,0 +1,239 @@
+package mt;
+
+import language.LanguageExpression;
+import language.NaturalLanguage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MachineTranslator decorator caching the translations of another translator, for workloads where
+ * the same commands are translated over and over.
+ *
+ * Translations are keyed on the normalized words of the source expression (lower cased, trimmed,
+ * empty words dropped), and the delegate translates the normalized words, so an expression and
+ * all of its normalized forms share one entry.
+ *
+ * The cache holds at most maximumSize entries, split over independently locked segments, each
+ * evicting its least recently used entry when full; lookups of different segments never contend,
+ * and no lock is held while the delegate translates. Entries are stamped with the delegate's
+ * version (see MachineTranslator.getVersion), so every entry computed before the delegate is
+ * retrained (or updated, or pruned) is treated as a miss and recomputed.
+ */
+public class CachingTranslator implements MachineTranslator {
+    protected static final int MAX_SEGMENTS = 16;
+
+    protected final MachineTranslator delegate;
+    protected final Segment[] segments;
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+
+    /**
+     * Instantiate a CachingTranslator.
+     *
+     * @param delegate Translator to cache the translations of; must support concurrent calls to
+     *                 translate if the cache is used concurrently.
+     * @param maximumSize Maximum number of source expressions to keep translations for.
+     */
+    public CachingTranslator(MachineTranslator delegate, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1, got " + maximumSize);
+        }
+        this.delegate = delegate;
+        this.segments = new Segment[Math.min(MAX_SEGMENTS, maximumSize)];
+        for (int i = 0; i < this.segments.length; i++) {
+            // Spread the remainder over the first segments, so that capacities add up to maximumSize
+            int capacity = maximumSize / this.segments.length + (i < maximumSize % this.segments.length ? 1 : 0);
+            this.segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Normalize the words of an expression into its cache key: lower cased, trimmed, with empty
+     * words dropped.
+     *
+     * @param sourceExpression Expression to normalize.
+     * @return Normalized words.
+     */
+    public static List<String> normalize(LanguageExpression sourceExpression) {
+        List<String> words = new ArrayList<>();
+        for (String word : sourceExpression.getWords()) {
+            String normalized = word.trim().toLowerCase(Locale.ROOT);
+            if (!normalized.isEmpty()) {
+                words.add(normalized);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Translate through the cache. A cached entry serves any k up to the number of translations it
+     * was computed for (the best k translations are a prefix of the best k + 1).
+     */
+    @Override
+    public List<Translation> translate(LanguageExpression sourceExpression, int k) {
+        List<String> words = normalize(sourceExpression);
+        String key = String.join(" ", words);
+        Segment segment = this.segmentFor(key);
+        long version = this.delegate.getVersion();
+
+        CachedTranslations entry = segment.get(key);
+        if (entry != null && entry.version == version && entry.serves(k)) {
+            this.hits.increment();
+            return entry.translations.subList(0, Math.min(k, entry.translations.size()));
+        }
+        this.misses.increment();
+        List<Translation> translations = Collections.unmodifiableList(
+                new ArrayList<>(this.delegate.translate(new NaturalLanguage(words), k)));
+        segment.put(key, new CachedTranslations(version, k, translations));
+        return translations;
+    }
+
+    @Override
+    public long getVersion() {
+        return this.delegate.getVersion();
+    }
+
+    /**
+     * Drop every cached translation.
+     */
+    public void invalidateAll() {
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Get the number of source expressions currently cached, including entries that are stale
+     * but not yet replaced.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Get the fraction of lookups served from the cache.
+     *
+     * @return Hit rate, or NaN before the first lookup.
+     */
+    public double getHitRate() {
+        long hits = this.getHits();
+        long lookups = hits + this.getMisses();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "CachingTranslator(size " + this.size() + ", hits " + this.getHits() + ", misses "
+                + this.getMisses() + ", evictions " + this.getEvictions() + ")";
+    }
+
+    protected Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return this.segments[Math.floorMod(hash, this.segments.length)];
+    }
+
+    /**
+     * Translations of a source expression, as computed for the best k under a delegate version.
+     */
+    protected static class CachedTranslations {
+        protected final long version;
+        protected final int k;
+        protected final List<Translation> translations;
+
+        protected CachedTranslations(long version, int k, List<Translation> translations) {
+            this.version = version;
+            this.k = k;
+            this.translations = translations;
+        }
+
+        /**
+         * Check whether the entry holds the best k translations: it was computed for at least k,
+         * or the delegate returned fewer than asked for (i.e. every translation it had).
+         */
+        protected boolean serves(int k) {
+            return k <= this.k || this.translations.size() < this.k;
+        }
+    }
+
+    /**
+     * Bounded LRU map of entries, guarded by its own lock.
+     */
+    protected class Segment {
+        protected final ReentrantLock lock = new ReentrantLock();
+        protected final LinkedHashMap<String, CachedTranslations> entries;
+
+        protected Segment(int capacity) {
+            this.entries = new LinkedHashMap<String, CachedTranslations>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedTranslations> eldest) {
+                    if (this.size() > capacity) {
+                        CachingTranslator.this.evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        protected CachedTranslations get(String key) {
+            this.lock.lock();
+            try {
+                return this.entries.get(key);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        protected void put(String key, CachedTranslations entry) {
+            this.lock.lock();
+            try {
+                this.entries.put(key, entry);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        protected void clear() {
+            this.lock.lock();
+            try {
+                this.entries.clear();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        protected int size() {
+            this.lock.lock();
+            try {
+                return this.entries.size();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+}
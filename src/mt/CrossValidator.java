@@ -0,0 +1,200 @@
+package mt;
+
+import language.LanguageExpression;
+import language.NaturalLanguage;
+import structures.AlignedSent;
+import structures.ParallelCorpus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Evaluation engine for leave-one-out and k-fold cross validation. Each fold trains a fresh model
+ * on an immutable view of the corpus that excludes the fold's held-out sentences, then translates
+ * the held-out sentences; the folds run concurrently on a fixed-size thread pool. The corpus
+ * itself is never modified.
+ *
+ * In the warm-started mode, fold models are instead derived from a single model trained on the
+ * whole corpus (see IBMModel.withHeldOut), which approximates the exact folds at a fraction of
+ * the cost; its reports are labeled approximate (see EvaluationReport.isApproximate).
+ */
+public class CrossValidator {
+    protected final ParallelCorpus corpus;
+    protected final Function<int[], ? extends MachineTranslator> foldTrainer;
+    protected final int threads;
+    /* True if fold models are derived from a model trained on the whole corpus */
+    protected final boolean approximate;
+
+    /**
+     * Instantiate a CrossValidator running one fold per available processor.
+     *
+     * @param corpus Corpus to evaluate on.
+     * @param trainer Function training a translator on the training view of a fold.
+     */
+    public CrossValidator(ParallelCorpus corpus, Function<ParallelCorpus, ? extends MachineTranslator> trainer) {
+        this(corpus, trainer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Instantiate a CrossValidator running at most the given number of folds at once.
+     *
+     * @param corpus Corpus to evaluate on.
+     * @param trainer Function training a translator on the training view of a fold.
+     * @param threads Number of folds trained and evaluated concurrently.
+     */
+    public CrossValidator(ParallelCorpus corpus, Function<ParallelCorpus, ? extends MachineTranslator> trainer,
+                          int threads) {
+        this(threads, corpus, heldOut -> trainer.apply(corpus.without(heldOut)), false);
+    }
+
+    /**
+     * Instantiate a warm-started CrossValidator, deriving each fold's model from a model trained
+     * on the whole corpus, with one fold per available processor.
+     *
+     * @param trained Model trained on the corpus to evaluate on.
+     * @param warmIterations Number of EM iterations run per fold, after subtracting its counts.
+     */
+    public CrossValidator(IBMModel trained, int warmIterations) {
+        this(trained, warmIterations, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Instantiate a warm-started CrossValidator, deriving each fold's model from a model trained
+     * on the whole corpus.
+     *
+     * @param trained Model trained on the corpus to evaluate on.
+     * @param warmIterations Number of EM iterations run per fold, after subtracting its counts.
+     * @param threads Number of folds evaluated concurrently.
+     */
+    public CrossValidator(IBMModel trained, int warmIterations, int threads) {
+        this(threads, trained.corpus, heldOut -> trained.withHeldOut(heldOut, warmIterations), true);
+    }
+
+    /**
+     * Instantiate a CrossValidator from a function training the model of a fold.
+     *
+     * @param threads Number of folds evaluated concurrently.
+     * @param corpus Corpus to evaluate on.
+     * @param foldTrainer Function training a translator given the held-out sentence indices.
+     * @param approximate True if the fold models approximate models trained on each fold.
+     */
+    protected CrossValidator(int threads, ParallelCorpus corpus, Function<int[], ? extends MachineTranslator> foldTrainer,
+                             boolean approximate) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1, got " + threads);
+        }
+        this.corpus = corpus;
+        this.foldTrainer = foldTrainer;
+        this.threads = threads;
+        this.approximate = approximate;
+    }
+
+    /**
+     * Build leave-one-out folds, each holding out a single sentence.
+     *
+     * @param size Number of sentences in the corpus.
+     * @return List of folds, as arrays of held-out sentence indices.
+     */
+    public static List<int[]> leaveOneOut(int size) {
+        List<int[]> folds = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            folds.add(new int[] {i});
+        }
+        return folds;
+    }
+
+    /**
+     * Build k folds, assigning sentence i to fold i % k. The corpora are grouped by command type,
+     * so striding (rather than cutting contiguous blocks) keeps every type in every fold.
+     *
+     * @param size Number of sentences in the corpus.
+     * @param k Number of folds.
+     * @return List of folds, as arrays of held-out sentence indices.
+     */
+    public static List<int[]> kFold(int size, int k) {
+        if (k < 2 || k > size) {
+            throw new IllegalArgumentException("Number of folds must be in [2, " + size + "], got " + k);
+        }
+        List<int[]> folds = new ArrayList<>(k);
+        for (int fold = 0; fold < k; fold++) {
+            int[] heldOut = new int[(size - fold + k - 1) / k];
+            for (int n = 0; n < heldOut.length; n++) {
+                heldOut[n] = fold + n * k;
+            }
+            folds.add(heldOut);
+        }
+        return folds;
+    }
+
+    /**
+     * Run leave-one-out cross validation over the corpus.
+     *
+     * @return Report of the per-fold results.
+     */
+    public EvaluationReport leaveOneOut() {
+        return this.run(leaveOneOut(this.corpus.size()));
+    }
+
+    /**
+     * Run k-fold cross validation over the corpus.
+     *
+     * @param k Number of folds.
+     * @return Report of the per-fold results.
+     */
+    public EvaluationReport kFold(int k) {
+        return this.run(kFold(this.corpus.size(), k));
+    }
+
+    /**
+     * Train and evaluate every fold, at most threads folds at a time.
+     *
+     * @param folds Folds to run, as arrays of held-out sentence indices.
+     * @return Report of the per-fold results, in the order of the folds.
+     */
+    public EvaluationReport run(List<int[]> folds) {
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Callable<EvaluationReport.FoldResult>> tasks = new ArrayList<>(folds.size());
+            for (int fold = 0; fold < folds.size(); fold++) {
+                final int index = fold;
+                final int[] heldOut = folds.get(fold);
+                tasks.add(() -> this.runFold(index, heldOut));
+            }
+
+            List<EvaluationReport.FoldResult> results = new ArrayList<>(folds.size());
+            for (Future<EvaluationReport.FoldResult> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return new EvaluationReport(results, this.approximate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Train a model on everything but the held-out sentences, and translate each of them.
+     */
+    protected EvaluationReport.FoldResult runFold(int fold, int[] heldOut) {
+        MachineTranslator translator = this.foldTrainer.apply(heldOut);
+
+        List<AlignedSent> tests = new ArrayList<>(heldOut.length);
+        List<LanguageExpression> translations = new ArrayList<>(heldOut.length);
+        for (int index : heldOut) {
+            AlignedSent test = this.corpus.get(index);
+            tests.add(test);
+            translations.add(translator.translate(new NaturalLanguage(test.getSourceWords())));
+        }
+        return new EvaluationReport.FoldResult(fold, heldOut, tests, translations);
+    }
+}
@@ -0,0 +1,383 @@
+package mt;
+
+import language.MachineLanguage;
+import structures.CandidateSet;
+
+import java.util.List;
+
+/**
+ * Decoder ranking the candidates of a CandidateSet against a source expression, for models whose
+ * likelihood factors per candidate word:
+ *
+ *      score(c) = lengthWeights[l] * sum over a of positionWeights[l][a] * tokenWeights[c_a]
+ *
+ * where l is the candidate's length, c_a the id of its a-th word, and tokenWeights[s] the product
+ * over the source words of tau(source word | s). IBM Model 1 has no length or position weights
+ * (both null, read as 1); IBM Model 2 folds its alignment probabilities into the position weights.
+ *
+ * The default search is a branch-and-bound over the CandidateSet's inverted index: words are
+ * visited in decreasing token weight, and a candidate is first scored when its best word is
+ * visited. Since every candidate not scored yet only contains words of lower weight, the search
+ * stops as soon as the current word's weight times the largest length/position coefficient cannot
+ * beat the n-th best score. It returns exactly the same ranking as scoring every candidate.
+ *
+ * With long source sentences, the products in the token and position weights underflow to 0, and
+ * the ranking falls back to candidate order. The log-space variants (decodeLog) take the logarithm
+ * of every weight instead, i.e. sums of precomputed log probabilities, and score
+ *
+ *      log score(c) = logLengthWeights[l] + log sum over a of exp(logPositionWeights[l][a] + logTokenWeights[c_a])
+ *
+ * by log-sum-exp, under the same branch-and-bound; translations are then scored by log-likelihood.
+ * The exponentials are taken once per query (see LogQuery), relative to the largest token weight
+ * and to the largest position weight of each length, so that a candidate costs a sum of products,
+ * and a logarithm only if it can enter the n-best list.
+ */
+public class Decoder {
+    /* Relative slack on the bound, so that rounding in the scores never prunes a candidate */
+    protected static final double BOUND_SLACK = 1.0e-9;
+    /* Absolute slack on the log-space bound, for the same reason */
+    protected static final double LOG_BOUND_SLACK = 1.0e-9;
+
+    protected final CandidateSet candidates;
+    /* log(l) for every candidate length l: the log sum of uniform position weights */
+    protected final double[] logLengths;
+
+    /**
+     * Instantiate a Decoder over a set of candidates.
+     *
+     * @param candidates Tokenized candidate expressions.
+     */
+    public Decoder(CandidateSet candidates) {
+        this.candidates = candidates;
+        this.logLengths = new double[candidates.getMaxLength() + 1];
+        for (int l = 0; l < this.logLengths.length; l++) {
+            this.logLengths[l] = Math.log(l);
+        }
+    }
+
+    /**
+     * Score a single candidate.
+     *
+     * @param candidate Index of the candidate.
+     * @param tokenWeights Weight of each target word id.
+     * @param positionWeights Weight of each position a of a candidate of length l, indexed
+     *                        [l][a], or null for uniform weights of 1.
+     * @param lengthWeights Weight of each candidate length, or null for uniform weights of 1.
+     * @return Score of the candidate.
+     */
+    public double score(int candidate, double[] tokenWeights, double[][] positionWeights, double[] lengthWeights) {
+        int[] expr = this.candidates.getIds(candidate);
+        int l = expr.length;
+        double sum = 0.0;
+        if (positionWeights == null) {
+            for (int s : expr) {
+                sum += tokenWeights[s];
+            }
+        }
+        else {
+            double[] lPositions = positionWeights[l];
+            for (int a = 0; a < l; a++) {
+                sum += lPositions[a] * tokenWeights[expr[a]];
+            }
+        }
+        return lengthWeights == null ? sum : lengthWeights[l] * sum;
+    }
+
+    /**
+     * Find the n best candidates by branch-and-bound over the inverted index.
+     *
+     * @return Up to n Translations, best first.
+     */
+    public List<Translation> decode(double[] tokenWeights, double[][] positionWeights, double[] lengthWeights,
+                                    int n) {
+        NBestList nBest = new NBestList(n);
+        boolean[] scored = new boolean[this.candidates.size()];
+
+        // Visit words by decreasing weight (target vocabularies are small, so insertion sort)
+        int words = this.candidates.getVocabularySize();
+        int[] order = new int[words];
+        for (int s = 0; s < words; s++) {
+            int position = s;
+            while (position > 0 && tokenWeights[order[position - 1]] < tokenWeights[s]) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = s;
+        }
+
+        double coefficient = this.maxCoefficient(positionWeights, lengthWeights) * (1.0 + BOUND_SLACK);
+        for (int s : order) {
+            int[] postings = this.candidates.getPostings(s);
+            if (postings.length == 0) {
+                continue;
+            }
+            // No candidate left can score above coefficient * weight(s)
+            if (coefficient * tokenWeights[s] < nBest.threshold()) {
+                break;
+            }
+            for (int candidate : postings) {
+                if (!scored[candidate]) {
+                    scored[candidate] = true;
+                    nBest.offer(candidate, this.score(candidate, tokenWeights, positionWeights, lengthWeights));
+                }
+            }
+        }
+        return nBest.toList(c -> new MachineLanguage(this.candidates.getWords(c)));
+    }
+
+    /**
+     * Find the n best candidates by scoring every one of them.
+     *
+     * @return Up to n Translations, best first.
+     */
+    public List<Translation> decodeExhaustive(double[] tokenWeights, double[][] positionWeights,
+                                              double[] lengthWeights, int n) {
+        NBestList nBest = new NBestList(n);
+        for (int candidate = 0; candidate < this.candidates.size(); candidate++) {
+            nBest.offer(candidate, this.score(candidate, tokenWeights, positionWeights, lengthWeights));
+        }
+        return nBest.toList(c -> new MachineLanguage(this.candidates.getWords(c)));
+    }
+
+    /**
+     * Get the largest factor a candidate's best token weight can be multiplied by, i.e. the max
+     * over lengths l of lengthWeights[l] * sum over a of positionWeights[l][a].
+     */
+    protected double maxCoefficient(double[][] positionWeights, double[] lengthWeights) {
+        double max = 0.0;
+        for (int l = 1; l <= this.candidates.getMaxLength(); l++) {
+            double sum = 0.0;
+            if (positionWeights == null) {
+                sum = l;
+            }
+            else {
+                for (double weight : positionWeights[l]) {
+                    sum += weight;
+                }
+            }
+            max = Math.max(max, lengthWeights == null ? sum : lengthWeights[l] * sum);
+        }
+        return max;
+    }
+
+    /**
+     * Score a single candidate in log space.
+     *
+     * @param candidate Index of the candidate.
+     * @param logTokenWeights Log weight of each target word id.
+     * @param logPositionWeights Log weight of each position a of a candidate of length l, indexed
+     *                           [l][a], or null for uniform weights of 1.
+     * @param logLengthWeights Log weight of each candidate length, or null for uniform weights of 1.
+     * @return Log score of the candidate.
+     */
+    public double scoreLog(int candidate, double[] logTokenWeights, double[][] logPositionWeights,
+                           double[] logLengthWeights) {
+        int[] expr = this.candidates.getIds(candidate);
+        int l = expr.length;
+        double[] lPositions = logPositionWeights == null ? null : logPositionWeights[l];
+
+        // Log-sum-exp: factor out the largest term, so that the exponentials never all underflow
+        double max = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < l; a++) {
+            max = Math.max(max, (lPositions == null ? 0.0 : lPositions[a]) + logTokenWeights[expr[a]]);
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+        double sum = 0.0;
+        for (int a = 0; a < l; a++) {
+            sum += Math.exp((lPositions == null ? 0.0 : lPositions[a]) + logTokenWeights[expr[a]] - max);
+        }
+        double logScore = max + Math.log(sum);
+        return logLengthWeights == null ? logScore : logLengthWeights[l] + logScore;
+    }
+
+    /**
+     * Find the n best candidates by branch-and-bound over the inverted index, in log space.
+     *
+     * @return Up to n Translations, best first, scored by log-likelihood.
+     */
+    public List<Translation> decodeLog(double[] logTokenWeights, double[][] logPositionWeights,
+                                       double[] logLengthWeights, int n) {
+        NBestList nBest = new NBestList(n);
+        boolean[] scored = new boolean[this.candidates.size()];
+
+        int words = this.candidates.getVocabularySize();
+        int[] order = new int[words];
+        for (int s = 0; s < words; s++) {
+            int position = s;
+            while (position > 0 && logTokenWeights[order[position - 1]] < logTokenWeights[s]) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = s;
+        }
+
+        LogQuery query = new LogQuery(logTokenWeights, logPositionWeights, logLengthWeights);
+        double logCoefficient = query.maxLogCoefficient() + LOG_BOUND_SLACK;
+        for (int s : order) {
+            int[] postings = this.candidates.getPostings(s);
+            if (postings.length == 0) {
+                continue;
+            }
+            // No candidate left can score above logCoefficient + log weight(s)
+            if (logCoefficient + logTokenWeights[s] < nBest.threshold()) {
+                break;
+            }
+            for (int candidate : postings) {
+                if (!scored[candidate]) {
+                    scored[candidate] = true;
+                    nBest.offer(candidate, query.score(candidate, nBest.threshold()));
+                }
+            }
+        }
+        return nBest.toList(c -> new MachineLanguage(this.candidates.getWords(c)));
+    }
+
+    /**
+     * Find the n best candidates by scoring every one of them, in log space.
+     *
+     * @return Up to n Translations, best first, scored by log-likelihood.
+     */
+    public List<Translation> decodeLogExhaustive(double[] logTokenWeights, double[][] logPositionWeights,
+                                                 double[] logLengthWeights, int n) {
+        NBestList nBest = new NBestList(n);
+        LogQuery query = new LogQuery(logTokenWeights, logPositionWeights, logLengthWeights);
+        for (int candidate = 0; candidate < this.candidates.size(); candidate++) {
+            nBest.offer(candidate, query.score(candidate, nBest.threshold()));
+        }
+        return nBest.toList(c -> new MachineLanguage(this.candidates.getWords(c)));
+    }
+
+    /**
+     * Log-space weights of a single query, with the exponentials of scoreLog taken once: a candidate
+     * of length l scores logOffsets[l] + log of the sum over a of positionFactors[l][a] * tokenFactors[c_a],
+     * where the factors are the exponentials of the weights relative to the largest token weight
+     * and to the largest position weight of length l.
+     */
+    protected class LogQuery {
+        protected final double[] logTokenWeights;
+        protected final double[][] logPositionWeights;
+        protected final double[] logLengthWeights;
+
+        protected final double[] tokenFactors;
+        protected final double[][] positionFactors;
+        /* logLengthWeights[l] plus the largest position weight of length l, without and with the largest token weight */
+        protected final double[] lengthOffsets;
+        protected final double[] logOffsets;
+
+        /* Smallest sum of factors of each length reaching cutoffThreshold, taken when the threshold moves */
+        protected final double[] cutoffs;
+        protected double cutoffThreshold = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Instantiate a LogQuery, with the same weights as scoreLog.
+         */
+        protected LogQuery(double[] logTokenWeights, double[][] logPositionWeights, double[] logLengthWeights) {
+            this.logTokenWeights = logTokenWeights;
+            this.logPositionWeights = logPositionWeights;
+            this.logLengthWeights = logLengthWeights;
+
+            double maxToken = Double.NEGATIVE_INFINITY;
+            for (double weight : logTokenWeights) {
+                maxToken = Math.max(maxToken, weight);
+            }
+            this.tokenFactors = factors(logTokenWeights, maxToken);
+
+            int maxLength = Decoder.this.candidates.getMaxLength();
+            this.positionFactors = logPositionWeights == null ? null : new double[maxLength + 1][];
+            this.lengthOffsets = new double[maxLength + 1];
+            this.logOffsets = new double[maxLength + 1];
+            for (int l = 1; l <= maxLength; l++) {
+                double maxPosition = 0.0;
+                if (logPositionWeights != null) {
+                    maxPosition = Double.NEGATIVE_INFINITY;
+                    for (double weight : logPositionWeights[l]) {
+                        maxPosition = Math.max(maxPosition, weight);
+                    }
+                    this.positionFactors[l] = factors(logPositionWeights[l], maxPosition);
+                }
+                this.lengthOffsets[l] = (logLengthWeights == null ? 0.0 : logLengthWeights[l]) + maxPosition;
+                this.logOffsets[l] = this.lengthOffsets[l] + maxToken;
+            }
+            this.cutoffs = new double[maxLength + 1];
+        }
+
+        /**
+         * Exponentials of weights relative to their largest one, or 0 if that is negative infinity.
+         */
+        protected double[] factors(double[] logWeights, double max) {
+            double[] factors = new double[logWeights.length];
+            if (max != Double.NEGATIVE_INFINITY) {
+                for (int w = 0; w < factors.length; w++) {
+                    factors[w] = Math.exp(logWeights[w] - max);
+                }
+            }
+            return factors;
+        }
+
+        /**
+         * Score a candidate like scoreLog, without the logarithm when it cannot reach a threshold.
+         *
+         * @param candidate Index of the candidate.
+         * @param threshold Score the candidate has to reach, e.g. NBestList.threshold.
+         * @return Log score of the candidate, or negative infinity if it is below the threshold.
+         */
+        protected double score(int candidate, double threshold) {
+            int[] expr = Decoder.this.candidates.getIds(candidate);
+            int l = expr.length;
+            double sum = 0.0;
+            if (this.positionFactors == null) {
+                for (int s : expr) {
+                    sum += this.tokenFactors[s];
+                }
+            }
+            else {
+                double[] lPositions = this.positionFactors[l];
+                for (int a = 0; a < l; a++) {
+                    sum += lPositions[a] * this.tokenFactors[expr[a]];
+                }
+            }
+            // Far below the largest weights, the factors lose precision: score by log-sum-exp instead
+            if (sum < Double.MIN_NORMAL) {
+                return Decoder.this.scoreLog(candidate, this.logTokenWeights, this.logPositionWeights,
+                        this.logLengthWeights);
+            }
+            if (threshold != Double.NEGATIVE_INFINITY) {
+                if (threshold != this.cutoffThreshold) {
+                    this.cutoffThreshold = threshold;
+                    for (int length = 1; length < this.cutoffs.length; length++) {
+                        this.cutoffs[length] = Math.exp(threshold - this.logOffsets[length]);
+                    }
+                }
+                if (this.cutoffs[l] >= Double.MIN_NORMAL && sum < this.cutoffs[l] * (1.0 - LOG_BOUND_SLACK)) {
+                    return Double.NEGATIVE_INFINITY;
+                }
+            }
+            return this.logOffsets[l] + Math.log(sum);
+        }
+
+        /**
+         * Log-space counterpart of maxCoefficient: the max over lengths l of logLengthWeights[l] plus
+         * the log of the sum over a of exp(logPositionWeights[l][a]).
+         */
+        protected double maxLogCoefficient() {
+            double max = Double.NEGATIVE_INFINITY;
+            for (int l = 1; l < this.logOffsets.length; l++) {
+                double logSum;
+                if (this.positionFactors == null) {
+                    logSum = Decoder.this.logLengths[l];
+                }
+                else {
+                    double sum = 0.0;
+                    for (double factor : this.positionFactors[l]) {
+                        sum += factor;
+                    }
+                    logSum = Math.log(sum);
+                }
+                max = Math.max(max, this.lengthOffsets[l] + logSum);
+            }
+            return max;
+        }
+    }
+}
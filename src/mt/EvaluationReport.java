@@ -0,0 +1,216 @@
+package mt;
+
+import language.LanguageExpression;
+import structures.AlignedSent;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated results of a cross validation run: the translations produced by every fold, and the
+ * resulting accuracy. Reports are labeled exact, when every fold trained its own model, or
+ * approximate, when fold models were derived from a model trained on the whole corpus (see
+ * IBMModel.withHeldOut).
+ */
+public class EvaluationReport {
+    protected final List<FoldResult> folds;
+    protected final boolean approximate;
+
+    /**
+     * Instantiate an exact EvaluationReport from the results of each fold.
+     *
+     * @param folds Per-fold results, in fold order.
+     */
+    public EvaluationReport(List<FoldResult> folds) {
+        this(folds, false);
+    }
+
+    /**
+     * Instantiate an EvaluationReport from the results of each fold.
+     *
+     * @param folds Per-fold results, in fold order.
+     * @param approximate True if the fold models approximate models trained on each fold.
+     */
+    public EvaluationReport(List<FoldResult> folds, boolean approximate) {
+        this.folds = Collections.unmodifiableList(folds);
+        this.approximate = approximate;
+    }
+
+    public List<FoldResult> getFolds() {
+        return this.folds;
+    }
+
+    /**
+     * Check whether the results are approximate, i.e. come from warm-started fold models.
+     */
+    public boolean isApproximate() {
+        return this.approximate;
+    }
+
+    /**
+     * Get the label of the evaluation mode, "approximate" or "exact".
+     */
+    public String getMode() {
+        return this.approximate ? "approximate" : "exact";
+    }
+
+    /**
+     * Get the number of held-out sentences translated correctly, over all folds.
+     */
+    public int getNumCorrect() {
+        return this.folds.stream().mapToInt(FoldResult::getNumCorrect).sum();
+    }
+
+    /**
+     * Get the number of held-out sentences, over all folds.
+     */
+    public int getNumTests() {
+        return this.folds.stream().mapToInt(FoldResult::size).sum();
+    }
+
+    /**
+     * Get the fraction of held-out sentences translated correctly, over all folds.
+     */
+    public double getAccuracy() {
+        return (double) this.getNumCorrect() / (double) this.getNumTests();
+    }
+
+    /**
+     * Get the fraction of held-out sentences that were translated identically in another report
+     * over the same folds, e.g. to measure how well an approximate evaluation mode agrees with
+     * the exact one.
+     *
+     * @param other Report over the same folds.
+     * @return Fraction of held-out sentences with identical translations in both reports.
+     */
+    public double agreement(EvaluationReport other) {
+        if (other.folds.size() != this.folds.size()) {
+            throw new IllegalArgumentException("Reports cover different folds");
+        }
+        int agreed = 0;
+        for (int f = 0; f < this.folds.size(); f++) {
+            FoldResult fold = this.folds.get(f);
+            FoldResult otherFold = other.folds.get(f);
+            if (fold.size() != otherFold.size()) {
+                throw new IllegalArgumentException("Reports cover different folds");
+            }
+            for (int n = 0; n < fold.size(); n++) {
+                if (fold.getTranslations().get(n).getWords().equals(otherFold.getTranslations().get(n).getWords())) {
+                    agreed++;
+                }
+            }
+        }
+        return (double) agreed / (double) this.getNumTests();
+    }
+
+    /**
+     * Print how this report compares against another report over the same folds, typically an
+     * approximate report against the exact one.
+     *
+     * @param other Report to compare against.
+     * @param out Stream to print to.
+     */
+    public void compare(EvaluationReport other, PrintStream out) {
+        out.println("Accuracy (" + this.getMode() + "): " + this.getAccuracy() + " (" + other.getMode() + ": "
+                + other.getAccuracy() + ", difference: " + (this.getAccuracy() - other.getAccuracy()) + ")");
+        out.println("Agreement with " + other.getMode() + " translations: " + this.agreement(other));
+    }
+
+    /**
+     * Print every held-out translation, followed by the overall accuracy.
+     *
+     * @param out Stream to print to.
+     */
+    public void print(PrintStream out) {
+        for (FoldResult fold : this.folds) {
+            for (int n = 0; n < fold.size(); n++) {
+                List<String> inputWords = fold.getTests().get(n).getSourceWords();
+                List<String> outputWords = fold.getTests().get(n).getTargetWords();
+                List<String> output = fold.getTranslations().get(n).getWords();
+                if (fold.isCorrect(n)) {
+                    out.println("Performed correct translation");
+                    out.println("Correctly translated: " + output.toString());
+                }
+                else {
+                    out.println("Performed incorrect translation");
+                    out.println("Input: " + inputWords.toString());
+                    out.println("Expected: " + outputWords.toString());
+                    out.println("Found: " + output.toString());
+                }
+                out.println("");
+            }
+        }
+        out.println("Accuracy (" + this.getMode() + "): " + this.getAccuracy() + " (" + this.getNumCorrect() + " / "
+                + this.getNumTests() + ")");
+    }
+
+    /**
+     * Results of a single fold: its held-out sentences and their translations.
+     */
+    public static class FoldResult {
+        protected final int fold;
+        protected final int[] heldOut;
+        protected final List<AlignedSent> tests;
+        protected final List<LanguageExpression> translations;
+        protected final boolean[] correct;
+        protected final int numCorrect;
+
+        /**
+         * Instantiate a FoldResult, scoring each translation against its held-out sentence.
+         *
+         * @param fold Index of the fold.
+         * @param heldOut Corpus indices of the held-out sentences.
+         * @param tests Held-out sentences.
+         * @param translations Translations of the held-out sentences' source expressions.
+         */
+        public FoldResult(int fold, int[] heldOut, List<AlignedSent> tests, List<LanguageExpression> translations) {
+            this.fold = fold;
+            this.heldOut = heldOut;
+            this.tests = Collections.unmodifiableList(tests);
+            this.translations = Collections.unmodifiableList(translations);
+            this.correct = new boolean[tests.size()];
+            int numCorrect = 0;
+            for (int n = 0; n < tests.size(); n++) {
+                this.correct[n] = IBMModel.goodTranslation(tests.get(n).getTargetWords(),
+                        translations.get(n).getWords());
+                if (this.correct[n]) {
+                    numCorrect++;
+                }
+            }
+            this.numCorrect = numCorrect;
+        }
+
+        public int getFold() {
+            return this.fold;
+        }
+
+        public int[] getHeldOut() {
+            return this.heldOut.clone();
+        }
+
+        public List<AlignedSent> getTests() {
+            return this.tests;
+        }
+
+        public List<LanguageExpression> getTranslations() {
+            return this.translations;
+        }
+
+        public boolean isCorrect(int n) {
+            return this.correct[n];
+        }
+
+        public int getNumCorrect() {
+            return this.numCorrect;
+        }
+
+        public int size() {
+            return this.tests.size();
+        }
+
+        public double getAccuracy() {
+            return (double) this.numCorrect / (double) this.tests.size();
+        }
+    }
+}
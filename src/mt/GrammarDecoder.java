@@ -0,0 +1,473 @@
+package mt;
+
+import language.ExpressionEnumerator;
+import language.MachineLanguage;
+import structures.CandidateSet;
+import structures.Vocabulary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Decoder searching the whole valid machine language rather than a CandidateSet: every canonical
+ * expression (see ExpressionEnumerator) over the given words, i.e. a non-decreasing sequence of
+ * words with exactly one agentInRoom, at most two blockInRoom, at most three color predicates and
+ * an even length, up to maxLength words. Expressions never seen in training can thus be produced.
+ *
+ * Scores are those of Decoder (score(c) = lengthWeights[l] * sum over a of positionWeights[l][a]
+ * * tokenWeights[c_a], or their log-space counterparts), which add one term per position. So
+ * rather than enumerating expressions, the n best are found by dynamic programming over the
+ * positions of each length l: the state after a position is its word and the number of words of
+ * each class so far, and each state keeps the n best prefixes reaching it. A prefix's score only
+ * grows with the partial score it extends, so the n best expressions are always built from the n
+ * best prefixes of their states, and the search is exact. Its cost is polynomial in maxLength and
+ * the number of words, while the number of expressions grows exponentially.
+ *
+ * An expression is a multiset, but with position weights (IBM Model 2) its orderings score
+ * differently, and it is scored by its best ordering. By the rearrangement inequality, that one
+ * puts the words of largest token weight at the positions of largest position weight. So with
+ * position weights, the dynamic program adds words by decreasing token weight rather than
+ * alphabetically, and fills positions by decreasing position weight: every multiset is built once,
+ * in its best ordering, and the search stays exact over all orderings. Expressions are returned in
+ * that ordering, scored as Decoder scores it.
+ *
+ * Without position weights, equally scoring expressions are ranked in enumeration order, like a
+ * Decoder over the enumerated expressions would rank them, except where rounding makes prefixes of
+ * different scores tie once extended (their scores are then equal, but their order may differ).
+ *
+ * Models whose scores do not add one term per position (HMM) rank the enumerated expressions
+ * instead, see getExpressions; those are only scored in their canonical (sorted) ordering.
+ *
+ * The grammar does not cover every expression of the corpora: odd-length expressions (e.g.
+ * "isBlue isGreen blockInRoom", 480 of the 960 expert sentences) and expressions without exactly
+ * one agentInRoom (e.g. "isRed blockInRoom") are never produced. Only 240 of the 960 expert and
+ * 462 of the 1530 full sentences have an expression of the grammar.
+ */
+public class GrammarDecoder {
+    /* Classes of ExpressionEnumerator */
+    protected static final int CLASSES = ExpressionEnumerator.OTHER + 1;
+
+    protected final Vocabulary vocabulary;
+    /* Word ids of the grammar's words, in alphabetical order of the words */
+    protected final int[] ids;
+    protected final String[] words;
+    protected final int[] classes;
+    /* Words in alphabetical order, and the last of each class among them (-1 if the class has none) */
+    protected final int[] alphabetical;
+    protected final int[] lastOfClass;
+    protected final int maxLength;
+    /* Counts of each class are tracked up to caps[c], past which no limit depends on them */
+    protected final int[] caps;
+    protected final int states;
+    /* Every expression of the grammar, in enumeration order, or null until first needed */
+    protected volatile CandidateSet expressions;
+
+    /**
+     * Instantiate a GrammarDecoder over the given words.
+     *
+     * @param vocabulary Vocabulary the token weights are indexed by.
+     * @param words Propositional functions expressions are built from, all in the vocabulary.
+     * @param maxLength Maximum number of propositional functions in an expression.
+     */
+    public GrammarDecoder(Vocabulary vocabulary, Collection<String> words, int maxLength) {
+        this.vocabulary = vocabulary;
+        this.words = words.stream().distinct().sorted().toArray(String[]::new);
+        this.ids = new int[this.words.length];
+        this.classes = new int[this.words.length];
+        this.alphabetical = new int[this.words.length];
+        for (int k = 0; k < this.words.length; k++) {
+            this.ids[k] = vocabulary.id(this.words[k]);
+            if (this.ids[k] == Vocabulary.UNKNOWN) {
+                throw new IllegalArgumentException("Unknown word: " + this.words[k]);
+            }
+            this.classes[k] = ExpressionEnumerator.classOf(this.words[k]);
+            this.alphabetical[k] = k;
+        }
+        this.lastOfClass = this.findLastOfClass(this.alphabetical);
+        this.maxLength = maxLength;
+
+        this.caps = new int[CLASSES];
+        int states = this.words.length;
+        for (int c = 0; c < CLASSES; c++) {
+            int max = ExpressionEnumerator.maxCount(c);
+            this.caps[c] = max == Integer.MAX_VALUE ? ExpressionEnumerator.minCount(c) : max;
+            states *= this.caps[c] + 1;
+        }
+        this.states = states;
+    }
+
+    /**
+     * Find the n best expressions of the grammar.
+     *
+     * @param tokenWeights Weight of each word id.
+     * @param positionWeights Weight of each position a of an expression of length l, indexed
+     *                        [l][a] for l up to maxLength, or null for uniform weights of 1.
+     * @param lengthWeights Weight of each expression length, or null for uniform weights of 1.
+     * @param n Maximum number of translations to return.
+     * @return Up to n Translations, best first.
+     */
+    public List<Translation> decode(double[] tokenWeights, double[][] positionWeights, double[] lengthWeights,
+                                    int n) {
+        return this.search(tokenWeights, positionWeights, lengthWeights, false, n);
+    }
+
+    /**
+     * Find the n best expressions of the grammar, in log space (see Decoder.decodeLog).
+     *
+     * @return Up to n Translations, best first, scored by log-likelihood.
+     */
+    public List<Translation> decodeLog(double[] logTokenWeights, double[][] logPositionWeights,
+                                       double[] logLengthWeights, int n) {
+        return this.search(logTokenWeights, logPositionWeights, logLengthWeights, true, n);
+    }
+
+    /**
+     * Get every expression of the grammar as a CandidateSet, in enumeration order, e.g. for models
+     * that have to score each expression in full. The set is enumerated on first use; its size
+     * grows exponentially with maxLength.
+     *
+     * @return Expressions of the grammar, encoded with the decoder's vocabulary.
+     */
+    public CandidateSet getExpressions() {
+        CandidateSet expressions = this.expressions;
+        if (expressions == null) {
+            ExpressionEnumerator enumerator = new ExpressionEnumerator(Arrays.asList(this.words), this.maxLength);
+            expressions = new CandidateSet(enumerator.stream().map(enumerator::toExpression)
+                    .collect(Collectors.toList()), this.vocabulary);
+            this.expressions = expressions;
+        }
+        return expressions;
+    }
+
+    /**
+     * Run the dynamic program for every even length, and merge the best expressions of each.
+     */
+    protected List<Translation> search(double[] tokenWeights, double[][] positionWeights, double[] lengthWeights,
+                                       boolean logSpace, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of translations must be at least 1, got " + n);
+        }
+        // Words are added in order, the r-th one of an expression of length l at position slots[l][r]
+        int[] order = this.alphabetical;
+        int[] lastOfClass = this.lastOfClass;
+        int[][] slots = new int[this.maxLength + 1][];
+        if (positionWeights != null) {
+            order = this.byDecreasingWeight(this.alphabetical, k -> tokenWeights[this.ids[k]]);
+            lastOfClass = this.findLastOfClass(order);
+        }
+        List<Prefix> best = new ArrayList<>();
+        for (int l = 2; l <= this.maxLength; l += 2) {
+            double[] lPositions = null;
+            if (positionWeights != null) {
+                int[] positions = new int[l];
+                for (int a = 0; a < l; a++) {
+                    positions[a] = a;
+                }
+                double[] weights = positionWeights[l];
+                slots[l] = this.byDecreasingWeight(positions, a -> weights[a]);
+                lPositions = new double[l];
+                for (int r = 0; r < l; r++) {
+                    lPositions[r] = weights[slots[l][r]];
+                }
+            }
+            for (Prefix expression : this.search(l, order, lastOfClass, tokenWeights, lPositions, logSpace, n)) {
+                double score = expression.score;
+                if (lengthWeights != null) {
+                    score = logSpace ? lengthWeights[l] + score : lengthWeights[l] * score;
+                }
+                offer(best, new Prefix(expression.word, expression.previous, score), n);
+            }
+        }
+        List<Translation> translations = new ArrayList<>(best.size());
+        for (Prefix expression : best) {
+            translations.add(new Translation(
+                    new MachineLanguage(Arrays.asList(this.toWords(expression, slots[expression.length]))),
+                    expression.score));
+        }
+        return translations;
+    }
+
+    /**
+     * Sort indices by decreasing weight, equal weights keeping their order.
+     */
+    protected int[] byDecreasingWeight(int[] indices, IntToDoubleFunction weight) {
+        return Arrays.stream(indices).boxed()
+                .sorted(Comparator.comparingDouble((Integer index) -> weight.applyAsDouble(index)).reversed())
+                .mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Get the rank of the last word of each class in a word order, or -1 if the class has no word.
+     */
+    protected int[] findLastOfClass(int[] order) {
+        int[] lastOfClass = new int[CLASSES];
+        Arrays.fill(lastOfClass, -1);
+        for (int r = 0; r < order.length; r++) {
+            lastOfClass[this.classes[order[r]]] = r;
+        }
+        return lastOfClass;
+    }
+
+    /**
+     * Find the n best valid expressions of length l, before length weights, adding words in the
+     * given order.
+     *
+     * @param order Word indices, in the order they are added in.
+     * @param lastOfClass Rank in order of the last word of each class.
+     * @param lPositions Weight of the r-th position filled, or null for uniform weights of 1.
+     */
+    protected List<Prefix> search(int l, int[] order, int[] lastOfClass, double[] tokenWeights, double[] lPositions,
+                                  boolean logSpace, int n) {
+        int[] counts = new int[CLASSES];
+
+        // Prefixes of one word
+        List<List<Prefix>> layer = this.emptyLayer();
+        for (int r = 0; r < order.length; r++) {
+            int k = order[r];
+            Arrays.fill(counts, 0);
+            if (!this.admits(counts, k, r, lastOfClass, l - 1)) {
+                continue;
+            }
+            counts[this.classes[k]]++;
+            double score = this.extend(logSpace ? Double.NEGATIVE_INFINITY : 0.0, lPositions, 0,
+                    tokenWeights[this.ids[k]], logSpace);
+            offer(this.at(layer, this.state(r, counts)), new Prefix(k, null, score), n);
+        }
+
+        // Extend every kept prefix by every word that keeps the expression in order and within limits
+        for (int a = 1; a < l; a++) {
+            List<List<Prefix>> next = this.emptyLayer();
+            for (int state = 0; state < this.states; state++) {
+                List<Prefix> prefixes = layer.get(state);
+                if (prefixes == null) {
+                    continue;
+                }
+                int last = this.decodeState(state, counts);
+                for (int r = last; r < order.length; r++) {
+                    int k = order[r];
+                    if (!this.admits(counts, k, r, lastOfClass, l - a - 1)) {
+                        continue;
+                    }
+                    counts[this.classes[k]]++;
+                    List<Prefix> target = this.at(next, this.state(r, counts));
+                    counts[this.classes[k]]--;
+                    for (Prefix prefix : prefixes) {
+                        double score = this.extend(prefix.score, lPositions, a, tokenWeights[this.ids[k]], logSpace);
+                        if (!offer(target, new Prefix(k, prefix, score), n)) {
+                            // Prefixes are sorted, so no later one makes it either
+                            break;
+                        }
+                    }
+                }
+            }
+            layer = next;
+        }
+
+        List<Prefix> expressions = new ArrayList<>();
+        for (int state = 0; state < this.states; state++) {
+            if (layer.get(state) != null) {
+                this.decodeState(state, counts);
+                if (this.meetsMinimums(counts)) {
+                    for (Prefix expression : layer.get(state)) {
+                        if (!offer(expressions, expression, n)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return expressions;
+    }
+
+    /**
+     * Add the term of position a, holding a word of the given weight, to a partial score.
+     */
+    protected double extend(double score, double[] positions, int a, double tokenWeight, boolean logSpace) {
+        if (!logSpace) {
+            return score + (positions == null ? tokenWeight : positions[a] * tokenWeight);
+        }
+        double term = positions == null ? tokenWeight : positions[a] + tokenWeight;
+        // log(exp(score) + exp(term)), factoring out the larger one
+        double max = Math.max(score, term);
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+        return max + Math.log1p(Math.exp(Math.min(score, term) - max));
+    }
+
+    /**
+     * Check whether a word can be added to a prefix with the given class counts, without breaking
+     * a maximum, and so that every class minimum can still be met by the words left to add (which
+     * come after k, as words are added in order).
+     *
+     * @param rank Rank of k in the order words are added in.
+     * @param lastOfClass Rank of the last word of each class in that order.
+     * @param remaining Number of words left to add after k.
+     */
+    protected boolean admits(int[] counts, int k, int rank, int[] lastOfClass, int remaining) {
+        int wordClass = this.classes[k];
+        if (counts[wordClass] >= ExpressionEnumerator.maxCount(wordClass)) {
+            return false;
+        }
+        int missing = 0;
+        for (int c = 0; c < CLASSES; c++) {
+            int classMissing = ExpressionEnumerator.minCount(c) - counts[c] - (c == wordClass ? 1 : 0);
+            if (classMissing > 0) {
+                if (lastOfClass[c] < rank) {
+                    return false;
+                }
+                missing += classMissing;
+            }
+        }
+        return missing <= remaining;
+    }
+
+    protected boolean meetsMinimums(int[] counts) {
+        for (int c = 0; c < CLASSES; c++) {
+            if (counts[c] < ExpressionEnumerator.minCount(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the index of the state of a prefix ending with the word of the given rank, with the given
+     * class counts.
+     */
+    protected int state(int rank, int[] counts) {
+        int state = rank;
+        for (int c = 0; c < CLASSES; c++) {
+            state = state * (this.caps[c] + 1) + Math.min(counts[c], this.caps[c]);
+        }
+        return state;
+    }
+
+    /**
+     * Read the class counts of a state into counts.
+     *
+     * @return Rank of the word the state's prefixes end with.
+     */
+    protected int decodeState(int state, int[] counts) {
+        for (int c = CLASSES - 1; c >= 0; c--) {
+            counts[c] = state % (this.caps[c] + 1);
+            state /= this.caps[c] + 1;
+        }
+        return state;
+    }
+
+    /**
+     * Get a layer with no prefixes yet: a null list for every state.
+     */
+    protected List<List<Prefix>> emptyLayer() {
+        return new ArrayList<>(Collections.nCopies(this.states, null));
+    }
+
+    /**
+     * Get the prefixes of a state, creating its list on first use.
+     */
+    protected List<Prefix> at(List<List<Prefix>> layer, int state) {
+        List<Prefix> prefixes = layer.get(state);
+        if (prefixes == null) {
+            prefixes = new ArrayList<>();
+            layer.set(state, prefixes);
+        }
+        return prefixes;
+    }
+
+    /**
+     * Insert a prefix into a list of at most n prefixes, kept in ranking order.
+     *
+     * @return False if the prefix does not rank among the n best.
+     */
+    protected static boolean offer(List<Prefix> prefixes, Prefix prefix, int n) {
+        int position = prefixes.size();
+        while (position > 0 && RANKING.compare(prefix, prefixes.get(position - 1)) < 0) {
+            position--;
+        }
+        if (position >= n) {
+            return false;
+        }
+        prefixes.add(position, prefix);
+        if (prefixes.size() > n) {
+            prefixes.remove(n);
+        }
+        return true;
+    }
+
+    /**
+     * Get the words of an expression, the r-th word added at position slots[r] (or r, if null).
+     */
+    protected String[] toWords(Prefix expression, int[] slots) {
+        String[] words = new String[expression.length];
+        for (Prefix prefix = expression; prefix != null; prefix = prefix.previous) {
+            int r = prefix.length - 1;
+            words[slots == null ? r : slots[r]] = this.words[prefix.word];
+        }
+        return words;
+    }
+
+    /* Highest score first; ties in enumeration order, i.e. lexicographic with shorter prefixes first */
+    protected static final Comparator<Prefix> RANKING = (a, b) -> {
+        int cmp = Double.compare(b.score, a.score);
+        return cmp != 0 ? cmp : compareWords(a, b);
+    };
+
+    /**
+     * Compare the words of two prefixes lexicographically, a prefix ranking before its extensions.
+     */
+    protected static int compareWords(Prefix a, Prefix b) {
+        if (a.length != b.length) {
+            int[] aWords = a.toArray();
+            int[] bWords = b.toArray();
+            for (int k = 0; k < Math.min(aWords.length, bWords.length); k++) {
+                if (aWords[k] != bWords[k]) {
+                    return Integer.compare(aWords[k], bWords[k]);
+                }
+            }
+            return Integer.compare(aWords.length, bWords.length);
+        }
+        // Walk back to the first shared prefix; the earliest difference decides
+        int cmp = 0;
+        for (; a != b; a = a.previous, b = b.previous) {
+            if (a.word != b.word) {
+                cmp = Integer.compare(a.word, b.word);
+            }
+        }
+        return cmp;
+    }
+
+    /**
+     * Expression prefix: its last word and the prefix before it, shared by every extension.
+     */
+    protected static class Prefix {
+        protected final int word;
+        protected final Prefix previous;
+        protected final int length;
+        protected final double score;
+
+        protected Prefix(int word, Prefix previous, double score) {
+            this.word = word;
+            this.previous = previous;
+            this.length = previous == null ? 1 : previous.length + 1;
+            this.score = score;
+        }
+
+        /**
+         * Get the word indices of the prefix, first word first.
+         */
+        protected int[] toArray() {
+            int[] words = new int[this.length];
+            for (Prefix prefix = this; prefix != null; prefix = prefix.previous) {
+                words[prefix.length - 1] = prefix.word;
+            }
+            return words;
+        }
+    }
+}
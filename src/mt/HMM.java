@@ -0,0 +1,637 @@
+package mt;
+
+import language.LanguageExpression;
+import language.MachineLanguage;
+import structures.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Core class for the HMM alignment model (Vogel, Ney and Tillmann, 1996). Learns translation
+ * probabilities, like IBM Model 1, and the probability of each alignment given the previous one,
+ * which only depends on the jump width between the two source positions:
+ *
+ *      p(i | i', l) = c(i - i') / sum over i'' of c(i'' - i')
+ *
+ * so that the alignment table stays as small as the widest jump, however many sentence length
+ * combinations the corpus has. Words align to NULL with a fixed probability, through NULL states
+ * that remember the last source position (Och and Ney, 2003).
+ *
+ * EM Breakdown:
+ *      E - Step: Run forward-backward over each sentence's alignment lattice, collecting:
+ *                  a) Expected number of times a source word is translated into a target word
+ *                  b) Expected number of jumps of each width between consecutive alignments
+ *
+ *      M - Step: Estimate new probabilities from E - Step counts.
+ *
+ * Variables:
+ *      i - Position in the source sentence { 0 (NULL), 1, 2, ... Length }
+ *      j - Position in the target sentence { 1, 2, ... Length }
+ *      l - Number of words in the source sentence (excluding NULL)
+ *      m - Number of words in the target sentence
+ *      d - Jump width between the source positions of consecutive target words
+ *      s - Word in the source language
+ *      t - Word in the target language
+ *
+ * Translation scores every candidate by its likelihood under the model (summed over alignments,
+ * with the forward algorithm) times the length prior. Saved models (see save) keep the jump
+ * probabilities, so that MappedModel ranks candidates the same way.
+ *
+ * References:
+ *      Stephan Vogel, Hermann Ney, Christoph Tillmann. 1996. HMM-Based Word Alignment in
+ *      Statistical Translation.
+ *      Franz Josef Och, Hermann Ney. 2003. A Systematic Comparison of Various Statistical
+ *      Alignment Models.
+ */
+public class HMM extends IBMModel implements MachineTranslator {
+    /* Probability of aligning a target word to NULL */
+    protected static final double NULL_PROB = 0.2;
+    protected static final double JUMP_MIN_PROB = 1.0e-12;
+
+    /* c(d), indexed as jumps.get(d) */
+    protected JumpTable jumps;
+
+    /**
+     * Instantiate an HMM alignment model with a given Parallel Corpus, and a set number of EM
+     * iterations.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @param em_iterations Number of EM iterations for training.
+     */
+    public HMM(ParallelCorpus corpus, int em_iterations) {
+        this(corpus, em_iterations, new TrainingOptions());
+    }
+
+    /**
+     * Instantiate an HMM alignment model with a given Parallel Corpus, a set number of EM
+     * iterations, and options controlling how EM is run. Translation probabilities are initialized
+     * by IBM Model 1 training, as for IBM Model 2.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @param em_iterations Number of EM iterations for training (at most, with a tolerance).
+     * @param options Training options (e.g. E - Step parallelism).
+     */
+    public HMM(ParallelCorpus corpus, int em_iterations, TrainingOptions options) {
+        this(new IBM1(corpus, 2 * em_iterations, options), em_iterations);
+    }
+
+    /**
+     * Instantiate an HMM alignment model warm started from a trained IBM Model 1, over the same
+     * corpus and options. The IBM Model 1 is left untouched.
+     *
+     * @param ibm1 Trained IBM Model 1, whose translation probabilities are copied.
+     * @param em_iterations Number of EM iterations for training (at most, with a tolerance).
+     */
+    public HMM(IBM1 ibm1, int em_iterations) {
+        super(ibm1.corpus, ibm1.options);
+
+        // Initialize tau translation probabilities from Model 1 (both vocabularies are built from the same corpus)
+        this.tau = ibm1.tau.copy(this.sourceIndex, this.targetIndex);
+
+        // Initialize all jump probabilities
+        this.setUniformProbabilities();
+
+        // Run EM, for at most em_iterations
+        this.trainUntilConverged(em_iterations);
+    }
+
+    /**
+     * Set all jump probabilities to be uniform, for jumps up to the longest source sentence.
+     */
+    public void setUniformProbabilities() {
+        int maxJump = Math.max(this.maxSourceLength() - 1, 0);
+        this.jumps = new JumpTable(maxJump, 1.0 / (2 * maxJump + 1), JUMP_MIN_PROB);
+    }
+
+    /**
+     * Get the length of the longest source (machine) sentence of the corpus.
+     */
+    protected int maxSourceLength() {
+        int maxLength = 0;
+        for (int[] sourceSent : this.targetIds) {
+            maxLength = Math.max(maxLength, sourceSent.length - 1);
+        }
+        return maxLength;
+    }
+
+    /**
+     * M - Step: estimate new translation and jump probabilities from the given counts.
+     */
+    @Override
+    protected double maximization(Counts tauCounts) {
+        JumpCounts counts = (JumpCounts) tauCounts;
+        double maxChange = 0.0;
+
+        // Reset Tau - Values
+        for (int t = 0; t < this.tau.rows(); t++) {
+            for (int s = 0; s < this.tau.columns(); s++) {
+                double count = counts.getTS(t, s);
+                if (count > 0.0) {
+                    double estimate = Math.max(count / counts.nTO[s], TAU_MIN_PROB);
+                    maxChange = Math.max(maxChange, Math.abs(estimate - this.tau.get(t, s)));
+                    this.tau.set(t, s, estimate);
+                }
+            }
+        }
+
+        // Reset Jump - Values
+        double total = 0.0;
+        for (double count : counts.nJump) {
+            total += count;
+        }
+        int maxJump = this.jumps.getMaxJump();
+        for (int d = -maxJump; d <= maxJump; d++) {
+            double count = counts.getJump(d);
+            if (count > 0.0) {
+                double estimate = Math.max(count / total, JUMP_MIN_PROB);
+                maxChange = Math.max(maxChange, Math.abs(estimate - this.jumps.get(d)));
+                this.jumps.set(d, estimate);
+            }
+        }
+        return maxChange;
+    }
+
+    /**
+     * E - Step: run forward-backward over the corpus sentences with indices in [from, to),
+     * collecting translation and jump counts. The lattice is allocated once for the whole range.
+     */
+    @Override
+    protected void expectation(int from, int to, Counts counts) {
+        JumpCounts jumpCounts = (JumpCounts) counts;
+        int maxM = 0;
+        for (int index = from; index < to; index++) {
+            maxM = Math.max(maxM, this.sourceIds[index].length);
+        }
+        Lattice lattice = new Lattice(maxM, this.maxSourceLength());
+        TranslationProbabilities tau = this.tau::get;
+
+        for (int index = from; index < to; index++) {
+            // Source sentence carries the NULL Token at position 0, target positions are 1 - Indexed
+            int[] sourceSent = this.targetIds[index];
+            int[] targetSent = this.sourceIds[index];
+
+            // E - Step (a) - Forward pass, and the sentence's likelihood
+            jumpCounts.logLikelihood += lattice.forward(sourceSent, targetSent, tau, this.jumps);
+
+            // E - Step (b) - Backward pass, and counts
+            lattice.backward();
+            lattice.collect(jumpCounts);
+        }
+    }
+
+    /**
+     * Align every target word along the most likely path through the alignment lattice.
+     */
+    @Override
+    protected int[] viterbi(int[] sourceSent, int[] targetSent) {
+        Lattice lattice = new Lattice(targetSent.length, sourceSent.length - 1);
+        return lattice.viterbi(sourceSent, targetSent, this.tau::get, this.jumps);
+    }
+
+    /**
+     * Score every candidate by the likelihood of the source expression given the candidate,
+     * times the length prior.
+     */
+    @Override
+    public List<Translation> translate(LanguageExpression sourceExpression, int n) {
+        int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+        return rank(sourceSplit, this.candidates, this.targetIndex.id(NULL), this.tau::get, this.jumps,
+                this.lengthWeights(sourceSplit.length), this.options.isLogSpaceDecoding(), n);
+    }
+
+    /**
+     * Same as translate, which already scores every candidate.
+     */
+    @Override
+    public List<Translation> translateExhaustive(LanguageExpression sourceExpression, int n) {
+        return this.translate(sourceExpression, n);
+    }
+
+    /**
+     * Score every expression of the grammar like translate scores the candidates: the likelihood of
+     * an HMM does not factor per candidate word, so the GrammarDecoder's dynamic program does not
+     * apply, and its enumerated expressions are ranked instead. The ranking is approximate: each
+     * expression is only scored in its canonical (sorted) ordering, while another ordering of the
+     * same words may be more likely under the jump probabilities.
+     */
+    @Override
+    public List<Translation> translateGrammar(LanguageExpression sourceExpression, int n) {
+        int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+        return rank(sourceSplit, this.getGrammarDecoder().getExpressions(), this.targetIndex.id(NULL), this.tau::get,
+                this.jumps, this.lengthWeights(sourceSplit.length), this.options.isLogSpaceDecoding(), n);
+    }
+
+    /**
+     * Same as IBM2.lengthWeights: candidates are weighted by Prior(l | m).
+     */
+    @Override
+    protected double[] lengthWeights(int m) {
+        double[] lengthWeights = new double[this.candidates.getMaxLength() + 1];
+        for (int l = 0; l < lengthWeights.length; l++) {
+            lengthWeights[l] = this.lengthPrior(l, m);
+        }
+        return lengthWeights;
+    }
+
+    /**
+     * Rank the candidates by the likelihood of the source sentence given each one, times
+     * Prior(l | m). The forward pass is scaled, so it never underflows; in log space, candidates
+     * are also scored by log-likelihood, rather than by a likelihood that may underflow once the
+     * log-likelihood is exponentiated.
+     *
+     * @param sourceSplit Word ids of the source (English) sentence.
+     * @param candidates Candidate expressions.
+     * @param nullId Id of the NULL token among the candidates' words.
+     * @param tau Translation probabilities.
+     * @param jumps Jump probabilities.
+     * @param lengthWeights Prior(l | m) of each candidate length l, for the source sentence length m.
+     * @param logSpace True to score candidates by log-likelihood.
+     * @param n Maximum number of translations to return.
+     * @return Up to n translations, most likely first.
+     */
+    protected static List<Translation> rank(int[] sourceSplit, CandidateSet candidates, int nullId,
+                                            TranslationProbabilities tau, JumpTable jumps, double[] lengthWeights,
+                                            boolean logSpace, int n) {
+        int m = sourceSplit.length;
+        Lattice lattice = new Lattice(m, candidates.getMaxLength());
+        NBestList nBest = new NBestList(n);
+        double[] logLengthWeights = new double[lengthWeights.length];
+        for (int l = 0; l < logLengthWeights.length && logSpace; l++) {
+            logLengthWeights[l] = Math.log(lengthWeights[l]);
+        }
+        for (int candidate = 0; candidate < candidates.size(); candidate++) {
+            int[] expr = candidates.getIds(candidate);
+            int l = expr.length;
+            int[] nulled = new int[l + 1];
+            nulled[0] = nullId;
+            System.arraycopy(expr, 0, nulled, 1, l);
+            double logLikelihood = lattice.forward(nulled, sourceSplit, tau, jumps);
+            double prior = lengthWeights[l];
+            if (logSpace) {
+                nBest.offer(candidate, logLengthWeights[l] + logLikelihood);
+            }
+            else {
+                nBest.offer(candidate, prior * Math.exp(logLikelihood));
+            }
+        }
+        return nBest.toList(c -> new MachineLanguage(candidates.getWords(c)));
+    }
+
+    /**
+     * Also grows the jump table, if the new sentences are longer than any before.
+     */
+    @Override
+    protected void growTables(List<AlignedSent> sentences) {
+        super.growTables(sentences);
+        int maxJump = this.maxSourceLength() - 1;
+        if (maxJump > this.jumps.getMaxJump()) {
+            this.jumps = this.jumps.grow(maxJump, 1.0 / (2 * maxJump + 1));
+        }
+    }
+
+    @Override
+    protected Counts newCounts() {
+        return new JumpCounts(this.tau.rows(), this.tau.columns(), this.jumps.getMaxJump());
+    }
+
+    @Override
+    protected HMM untrained(ParallelCorpus corpus) {
+        return new HMM(corpus, 0, this.options);
+    }
+
+    /**
+     * Carries the jump counts over along with the translation counts.
+     */
+    @Override
+    protected Counts subtractCounts(IBMModel model, Counts counts, Counts heldOut) {
+        JumpCounts subtracted = (JumpCounts) super.subtractCounts(model, counts, heldOut);
+        JumpCounts full = (JumpCounts) counts;
+        JumpCounts held = (JumpCounts) heldOut;
+        int maxJump = this.jumps.getMaxJump();
+        for (int d = -maxJump; d <= maxJump; d++) {
+            double count = remaining(full.getJump(d), held.getJump(d));
+            if (count > 0.0) {
+                subtracted.updateJump(count, d);
+            }
+        }
+        return subtracted;
+    }
+
+    @Override
+    public ModelSnapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Also saves the jump probabilities, in the jump section of ModelFile.
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        ModelFile.write(this, this.jumps, path);
+    }
+
+    /**
+     * ModelSnapshot of an HMM, translating with a frozen copy of its jump probabilities.
+     */
+    protected static class Snapshot extends ModelSnapshot {
+        protected final JumpTable jumps;
+        protected final int nullId;
+
+        protected Snapshot(HMM model) {
+            super(model);
+            this.jumps = model.jumps.copy();
+            this.nullId = model.targetIndex.id(NULL);
+        }
+
+        @Override
+        public List<Translation> translate(LanguageExpression sourceExpression, int n) {
+            int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+            return rank(sourceSplit, this.candidates, this.nullId, this.tau::get, this.jumps,
+                    this.lengthWeights(sourceSplit.length), this.logSpace, n);
+        }
+    }
+
+    /**
+     * Translation probabilities tau(t | s) the lattice emits words with, whether held in a TauTable
+     * or read from a mapped model file.
+     */
+    protected interface TranslationProbabilities {
+        double get(int t, int s);
+    }
+
+    /**
+     * Alignment lattice of a sentence pair: 2l states per target position, the source positions
+     * 1 ... l (states 0 ... l - 1) and a NULL state remembering each of them (states l ... 2l - 1).
+     * The primitive arrays are sized once and reused across sentences; forward probabilities are
+     * scaled per target position, so that long sentences never underflow.
+     */
+    protected static class Lattice {
+        protected int capacityM;
+        protected int capacityL;
+        /* Per target position j and state q, at j * 2l + q */
+        protected double[] alpha;
+        protected double[] beta;
+        protected double[] emission;
+        /* Transition probability between source positions, at i' * l + i */
+        protected double[] transition;
+        /* Sum of the unscaled forward probabilities at each target position */
+        protected double[] scale;
+        /* Current sentence */
+        protected int[] sourceSent;
+        protected int[] targetSent;
+        protected int l;
+        protected int m;
+
+        protected Lattice(int m, int l) {
+            this.ensureCapacity(m, l);
+        }
+
+        protected void ensureCapacity(int m, int l) {
+            if (m <= this.capacityM && l <= this.capacityL) {
+                return;
+            }
+            this.capacityM = Math.max(m, this.capacityM);
+            this.capacityL = Math.max(l, this.capacityL);
+            int states = 2 * this.capacityL;
+            this.alpha = new double[this.capacityM * states];
+            this.beta = new double[this.capacityM * states];
+            this.emission = new double[this.capacityM * states];
+            this.transition = new double[this.capacityL * this.capacityL];
+            this.scale = new double[this.capacityM];
+        }
+
+        /**
+         * Fill the emission and transition probabilities of a sentence pair.
+         */
+        protected void prepare(int[] sourceSent, int[] targetSent, TranslationProbabilities tau, JumpTable jumps) {
+            this.sourceSent = sourceSent;
+            this.targetSent = targetSent;
+            this.l = sourceSent.length - 1;
+            this.m = targetSent.length;
+            this.ensureCapacity(this.m, this.l);
+            int l = this.l;
+            int states = 2 * l;
+
+            for (int j = 0; j < this.m; j++) {
+                int t = targetSent[j];
+                double nullEmission = tau.get(t, sourceSent[0]);
+                for (int i = 0; i < l; i++) {
+                    this.emission[j * states + i] = tau.get(t, sourceSent[i + 1]);
+                    this.emission[j * states + l + i] = nullEmission;
+                }
+            }
+            for (int from = 0; from < l; from++) {
+                double norm = 0.0;
+                for (int i = 0; i < l; i++) {
+                    norm += jumps.get(i - from);
+                }
+                for (int i = 0; i < l; i++) {
+                    this.transition[from * l + i] = (1.0 - NULL_PROB) * jumps.get(i - from) / norm;
+                }
+            }
+        }
+
+        /**
+         * Run the forward pass over a sentence pair.
+         *
+         * @param sourceSent Word ids of the source sentence, preceded by NULL.
+         * @param targetSent Word ids of the target sentence.
+         * @return Log-likelihood of the target sentence given the source sentence.
+         */
+        protected double forward(int[] sourceSent, int[] targetSent, TranslationProbabilities tau, JumpTable jumps) {
+            this.prepare(sourceSent, targetSent, tau, jumps);
+            int l = this.l;
+            int states = 2 * l;
+            if (l == 0) {
+                // Only NULL to align to
+                double logLikelihood = 0.0;
+                for (int t : targetSent) {
+                    logLikelihood += Math.log(tau.get(t, sourceSent[0]));
+                }
+                return logLikelihood;
+            }
+
+            double logLikelihood = 0.0;
+            for (int j = 0; j < this.m; j++) {
+                int row = j * states;
+                if (j == 0) {
+                    for (int i = 0; i < l; i++) {
+                        this.alpha[i] = (1.0 - NULL_PROB) / l * this.emission[i];
+                        this.alpha[l + i] = NULL_PROB / l * this.emission[l + i];
+                    }
+                }
+                else {
+                    int previous = row - states;
+                    for (int i = 0; i < l; i++) {
+                        double sum = 0.0;
+                        for (int from = 0; from < l; from++) {
+                            sum += (this.alpha[previous + from] + this.alpha[previous + l + from])
+                                    * this.transition[from * l + i];
+                        }
+                        this.alpha[row + i] = sum * this.emission[row + i];
+                    }
+                    for (int from = 0; from < l; from++) {
+                        this.alpha[row + l + from] = NULL_PROB
+                                * (this.alpha[previous + from] + this.alpha[previous + l + from])
+                                * this.emission[row + l + from];
+                    }
+                }
+
+                double sum = 0.0;
+                for (int q = 0; q < states; q++) {
+                    sum += this.alpha[row + q];
+                }
+                this.scale[j] = sum;
+                for (int q = 0; q < states; q++) {
+                    this.alpha[row + q] /= sum;
+                }
+                logLikelihood += Math.log(sum);
+            }
+            return logLikelihood;
+        }
+
+        /**
+         * Run the backward pass over the sentence pair of the last forward pass, with its scaling.
+         */
+        protected void backward() {
+            int l = this.l;
+            int states = 2 * l;
+            if (l == 0 || this.m == 0) {
+                return;
+            }
+            int last = (this.m - 1) * states;
+            Arrays.fill(this.beta, last, last + states, 1.0);
+            for (int j = this.m - 2; j >= 0; j--) {
+                int row = j * states;
+                int next = row + states;
+                for (int from = 0; from < l; from++) {
+                    // Source positions and their NULL states share the same successors
+                    double sum = NULL_PROB * this.emission[next + l + from] * this.beta[next + l + from];
+                    for (int i = 0; i < l; i++) {
+                        sum += this.transition[from * l + i] * this.emission[next + i] * this.beta[next + i];
+                    }
+                    sum /= this.scale[j + 1];
+                    this.beta[row + from] = sum;
+                    this.beta[row + l + from] = sum;
+                }
+            }
+        }
+
+        /**
+         * Add the expected translation and jump counts of the sentence pair of the last forward
+         * and backward passes to the given counts.
+         */
+        protected void collect(JumpCounts counts) {
+            int l = this.l;
+            int states = 2 * l;
+            if (l == 0) {
+                for (int t : this.targetSent) {
+                    counts.updateTau(1.0, this.sourceSent[0], t);
+                }
+                return;
+            }
+            for (int j = 0; j < this.m; j++) {
+                int row = j * states;
+                int t = this.targetSent[j];
+
+                // Translation counts, from the posterior of each state
+                for (int i = 0; i < l; i++) {
+                    counts.updateTau(this.alpha[row + i] * this.beta[row + i], this.sourceSent[i + 1], t);
+                }
+                double nullCount = 0.0;
+                for (int i = 0; i < l; i++) {
+                    nullCount += this.alpha[row + l + i] * this.beta[row + l + i];
+                }
+                counts.updateTau(nullCount, this.sourceSent[0], t);
+
+                // Jump counts, from the posterior of each transition into a source position
+                if (j > 0) {
+                    int previous = row - states;
+                    for (int from = 0; from < l; from++) {
+                        double reached = (this.alpha[previous + from] + this.alpha[previous + l + from]) / this.scale[j];
+                        for (int i = 0; i < l; i++) {
+                            counts.updateJump(reached * this.transition[from * l + i] * this.emission[row + i]
+                                    * this.beta[row + i], i - from);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Find the most likely alignment of a sentence pair.
+         *
+         * @return Packed (target position, source position) pairs, as IBMModel.viterbi.
+         */
+        protected int[] viterbi(int[] sourceSent, int[] targetSent, TranslationProbabilities tau, JumpTable jumps) {
+            this.prepare(sourceSent, targetSent, tau, jumps);
+            int l = this.l;
+            int m = this.m;
+            int states = 2 * l;
+            int[] pairs = new int[2 * m];
+            for (int j = 0; j < m; j++) {
+                pairs[2 * j] = j;
+                pairs[2 * j + 1] = Alignment.NULL;
+            }
+            if (l == 0 || m == 0) {
+                return pairs;
+            }
+
+            // Log scores in alpha, back pointers alongside
+            int[] back = new int[m * states];
+            for (int i = 0; i < l; i++) {
+                this.alpha[i] = Math.log((1.0 - NULL_PROB) / l * this.emission[i]);
+                this.alpha[l + i] = Math.log(NULL_PROB / l * this.emission[l + i]);
+            }
+            for (int j = 1; j < m; j++) {
+                int row = j * states;
+                int previous = row - states;
+                for (int q = 0; q < states; q++) {
+                    this.alpha[row + q] = Double.NEGATIVE_INFINITY;
+                }
+                for (int from = 0; from < l; from++) {
+                    // Best of the source position and its NULL state, which share their successors
+                    int best = this.alpha[previous + l + from] > this.alpha[previous + from] ? l + from : from;
+                    double score = this.alpha[previous + best];
+                    for (int i = 0; i < l; i++) {
+                        double candidate = score + Math.log(this.transition[from * l + i]);
+                        if (candidate > this.alpha[row + i]) {
+                            this.alpha[row + i] = candidate;
+                            back[row + i] = best;
+                        }
+                    }
+                    this.alpha[row + l + from] = score + Math.log(NULL_PROB);
+                    back[row + l + from] = best;
+                }
+                for (int q = 0; q < states; q++) {
+                    this.alpha[row + q] += Math.log(this.emission[row + q]);
+                }
+            }
+
+            int last = (m - 1) * states;
+            int state = 0;
+            for (int q = 1; q < states; q++) {
+                if (this.alpha[last + q] > this.alpha[last + state]) {
+                    state = q;
+                }
+            }
+            for (int j = m - 1; j >= 0; j--) {
+                pairs[2 * j + 1] = state < l ? state : Alignment.NULL;
+                state = back[j * states + state];
+            }
+            return pairs;
+        }
+    }
+
+    public static void main(String[] args){
+        String english = "data/corpus/expert_english.txt";
+        String machine = "data/corpus/expert_machine.txt";
+        ParallelCorpus corpus = new ParallelCorpus(english, machine);
+
+        EvaluationReport report = new CrossValidator(corpus, train -> new HMM(train, 10)).leaveOneOut();
+        report.print(System.out);
+        System.out.println("LOO accuracy: " + report.getAccuracy());
+    }
+}
@@ -1,17 +1,9 @@
 package mt;
 
-import language.LanguageExpression;
-import language.MachineLanguage;
-import language.NaturalLanguage;
-import structures.AlignedSent;
 import structures.Counts;
-import structures.DefaultDict;
 import structures.ParallelCorpus;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
 
 /**
  * Core class for the IBM Model 1 Translation System. Used to learn simple (naive) translation
@@ -44,12 +36,24 @@ public class IBM1 extends IBMModel implements MachineTranslator{
      * @param em_iterations Number of EM Iterations for training.
      */
     public IBM1(ParallelCorpus corpus, int em_iterations) {
-        super(corpus);
+        this(corpus, em_iterations, new TrainingOptions());
+    }
+
+    /**
+     * Instantiate an IBM Model 1 instance with a given Parallel Corpus, a set number of EM
+     * iterations, and options controlling how EM is run. With a convergence tolerance set in the
+     * options, training stops as soon as EM has converged.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @param em_iterations Number of EM Iterations for training (at most, with a tolerance).
+     * @param options Training options (e.g. E - Step parallelism).
+     */
+    public IBM1(ParallelCorpus corpus, int em_iterations, TrainingOptions options) {
+        super(corpus, options);
         this.setUniformProbabilities();
 
-        for (int i = 0; i < em_iterations; i++) {
-            this.train();
-        }
+        // Run EM, for at most em_iterations
+        this.trainUntilConverged(em_iterations);
     }
 
     /**
@@ -59,124 +63,109 @@ public class IBM1 extends IBMModel implements MachineTranslator{
         double initialProb = 1.0 / this.sourceVocabulary.size();
 
         // Set each tau value to the initial Probability
-        this.sourceVocabulary.stream().forEach(t -> this.tau.put(t, new DefaultDict<>(initialProb)));
-        this.tau.put(NULL, new DefaultDict<>(initialProb));
+        this.tau.fill(initialProb);
     }
 
     /**
-     * Run one iteration of EM, using the given tau values as prior probabilities.
+     * M - Step: estimate new translation probabilities from the given counts.
      */
-    public void train() {
-        Counts counts = new Counts();
-
-        // E - Step
-        for (int i = 0; i < this.corpus.size(); i++) {
-            AlignedSent alignedSent = this.corpus.get(i);
-            List<String> sourceSent = alignedSent.getTargetWords();
-            List<String> targetSent = alignedSent.getSourceWords();
-
-            List<String> nulled = new ArrayList<>();
-            nulled.add(NULL);
-            nulled.addAll(sourceSent);
-            sourceSent = nulled;
-
-            // E - Step (a) - Compute normalization factors
-            DefaultDict<String, Double> total_count = new DefaultDict<>(0.0);
-            for (String t : targetSent) {
-                for (String s : sourceSent) {
-                    total_count.put(t, total_count.get(t) + this.tau.get(t).get(s));
-                }
-            }
-
-            // E - Step (b) - Compute counts
-            for (String t : targetSent) {
-                for (String s : sourceSent) {
-                    double count = this.tau.get(t).get(s);
-                    double normalized_count = count / total_count.get(t);
-                    counts.nTS.get(t).put(s, counts.nTS.get(t).get(s) + normalized_count);
-                    counts.nTO.put(s, counts.nTO.get(s) + normalized_count);
+    @Override
+    protected double maximization(Counts counts) {
+        double maxChange = 0.0;
+        for (int t = 0; t < this.tau.rows(); t++) {
+            for (int s = 0; s < this.tau.columns(); s++) {
+                double count = counts.getTS(t, s);
+                if (count > 0.0) {
+                    double estimate = Math.max(count / counts.nTO[s], TAU_MIN_PROB);
+                    maxChange = Math.max(maxChange, Math.abs(estimate - this.tau.get(t, s)));
+                    this.tau.set(t, s, estimate);
                 }
             }
         }
+        return maxChange;
+    }
 
-        // M - Step
-        for (String t : this.tau.keySet()) {
-            for (String s : counts.nTS.get(t).keySet()) {
-                double estimate = counts.nTS.get(t).get(s) / counts.nTO.get(s);
-                this.tau.get(t).put(s, Math.max(estimate, TAU_MIN_PROB));
-            }
-        }
+    @Override
+    protected Counts newCounts() {
+        return new Counts(this.tau.rows(), this.tau.columns());
+    }
+
+    @Override
+    protected IBM1 untrained(ParallelCorpus corpus) {
+        return new IBM1(corpus, 0, this.options);
     }
 
     /**
-     * Translate a single expression of this IBM model's source language into an expression of the target language
-     * @param sourceExpression A language expression in the model's source language
-     * @return A language expression in the model's target language
+     * E - Step: count how many times each source word is translated into each target word, over
+     * the corpus sentences with indices in [from, to).
      */
     @Override
-    public LanguageExpression translate(LanguageExpression sourceExpression) {
-        List<String> sourceSplit = sourceExpression.getWords();
-        Map<String, Double> exprProbs = new HashMap<>();
-
-        int m = sourceExpression.getWords().size(); // m is length of source and comes from natural language
-        double maxLikelihood = Double.NEGATIVE_INFINITY;
-        String likelyExpr = "";
-
-        for (String expr : this.outputSet) {
-            String[] exprSplit = expr.split(" ");
-            double likelihood = 1.0;
-            double sum = 0.0;
-
-            for (String anExprSplit : exprSplit) {
-                double product = 1.0;
-                for (int k = 0; k < m; k++) {
-                    product *= this.tau.get(sourceSplit.get(k)).get(anExprSplit);
+    protected void expectation(int from, int to, Counts counts) {
+        double[] total_count = new double[this.tau.rows()];
+
+        for (int i = from; i < to; i++) {
+            int[] sourceSent = this.targetIds[i];
+            int[] targetSent = this.sourceIds[i];
+
+            // E - Step (a) - Compute normalization factors, and the sentence's likelihood under
+            // uniform alignments
+            double logPositions = Math.log(sourceSent.length);
+            for (int t : targetSent) {
+                double likelihood = 0.0;
+                for (int s : sourceSent) {
+                    double prob = this.tau.get(t, s);
+                    total_count[t] += prob;
+                    likelihood += prob;
                 }
-                sum += product;
+                counts.logLikelihood += Math.log(likelihood) - logPositions;
             }
-            likelihood *= sum;
-            if(likelihood > maxLikelihood){
-                maxLikelihood = likelihood;
-                likelyExpr = expr;
+
+            // E - Step (b) - Compute counts
+            for (int t : targetSent) {
+                for (int s : sourceSent) {
+                    double count = this.tau.get(t, s);
+                    double normalized_count = count / total_count[t];
+                    counts.updateTau(normalized_count, s, t);
+                }
             }
-            exprProbs.put(expr, likelihood);
-        }
-        List<String> translated = Arrays.asList(likelyExpr.split(" "));
-        exprProbs.entrySet().stream().sorted((e1,e2) -> e1.getValue().compareTo(e2.getValue())).forEachOrdered(System.out::println);
 
-        return new MachineLanguage(translated);
+            // Reset normalization factors for the next sentence
+            for (int t : targetSent) {
+                total_count[t] = 0.0;
+            }
+        }
     }
 
-    public static boolean goodTranslation(List<String> actual, List<String> translated){
-        AtomicBoolean ret = new AtomicBoolean(true);
-        actual.stream().forEach(w -> ret.compareAndSet(!translated.contains(w), false));
-        return ret.get();
+    /**
+     * Run leave-one-out cross validation over the corpus, training one model per held-out
+     * sentence. The folds run concurrently, and the corpus is left untouched.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @return Fraction of held-out sentences translated correctly.
+     */
+    public static double runLOOTest(ParallelCorpus corpus){
+        EvaluationReport report = new CrossValidator(corpus, train -> new IBM1(train, 30)).leaveOneOut();
+        report.print(System.out);
+        return report.getAccuracy();
     }
 
-    public static double runLOOTest(ParallelCorpus corpus){
-        AtomicInteger numCorrect = new AtomicInteger(0);
-        IntStream.range(0, corpus.size()).forEachOrdered(i -> {
-            AlignedSent test = corpus.remove(i);
-            List<String> inputWords = test.getSourceWords();
-            List<String> outputWords = test.getTargetWords();
-            IBM1 ibm1 = new IBM1(corpus, 30);
-            NaturalLanguage input = new NaturalLanguage(inputWords);
-            List<String> output = ibm1.translate(input).getWords();
-            if(goodTranslation(outputWords, output)){
-                numCorrect.getAndIncrement();
-                System.out.println("Performed correct translation");
-                System.out.println("Correctly translated: " + output.toString());
-            }
-            else{
-                System.out.println("Performed incorrect translation");
-                System.out.println("Input: " + inputWords.toString());
-                System.out.println("Expected: " + outputWords.toString());
-                System.out.println("Found: " + output.toString());
-            }
-            System.out.println("");
-            corpus.insert(test, i);
-        });
-        return (double) numCorrect.get() / (double) corpus.size();
+    /**
+     * Run an approximate leave-one-out cross validation, training a single model on the whole
+     * corpus and deriving each fold's model from it by subtracting the held-out sentence's
+     * counts (see IBMModel.withHeldOut). The exact cross validation is run alongside it, and
+     * the approximate report is printed with its accuracy difference and agreement against it.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @param warmIterations Number of EM iterations run per fold after the count subtraction.
+     * @return Fraction of held-out sentences translated correctly by the approximate folds.
+     */
+    public static double runWarmLOOTest(ParallelCorpus corpus, int warmIterations){
+        IBM1 ibm1 = new IBM1(corpus, 30);
+        EvaluationReport report = new CrossValidator(ibm1, warmIterations).leaveOneOut();
+        EvaluationReport exact = new CrossValidator(corpus, train -> new IBM1(train, 30)).leaveOneOut();
+        report.print(System.out);
+        report.compare(exact, System.out);
+        return report.getAccuracy();
     }
 
     public static void main(String[] args){
@@ -1,15 +1,10 @@
 package mt;
 
-import language.LanguageExpression;
-import language.MachineLanguage;
-import language.NaturalLanguage;
 import structures.*;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToDoubleFunction;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Core class for the IBM Model 2 Translation system. Learns translation probabilities and
@@ -17,6 +12,12 @@ import java.util.stream.IntStream;
  * probability is introduced, a(i | j,l,m), which predicts a source word position, given its
  * aligned target word's position.
  *
+ * As in the original nested-dictionary implementation, whose nested tables were shared between
+ * keys, the alignment probability of source position i is shared by every target position j and
+ * source length l: a(i | j, l, m) = a(i | m). The flat delta table keeps that keying by writing
+ * a(i | m) into every (j, l) entry of position i, and holds a block for the longest source length
+ * and every m, which decoding reads a(i | m) from.
+ *
  * EM Breakdown:
  *      E - Step: In training collect following counts weighted by training data:
  *                  a) Number of times a source word is translated into a target word
@@ -48,201 +49,401 @@ public class IBM2 extends IBMModel implements MachineTranslator{
      * @param em_iterations Number of EM iterations for training.
      */
     public IBM2(ParallelCorpus corpus, int em_iterations) {
-        super(corpus);
+        this(corpus, em_iterations, new TrainingOptions());
+    }
+
+    /**
+     * Instantiate an IBM Model 2 instance with a given Parallel Corpus, a set number of EM
+     * iterations, and options controlling how EM is run. With a convergence tolerance set in the
+     * options, both the IBM Model 1 initialization and IBM Model 2 training stop as soon as EM
+     * has converged.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @param em_iterations Number of EM iterations for training (at most, with a tolerance).
+     * @param options Training options (e.g. E - Step parallelism).
+     */
+    public IBM2(ParallelCorpus corpus, int em_iterations, TrainingOptions options) {
+        super(corpus, options);
 
         // Initialize tau translation probabilities by running a few iterations of Model 1 training
-        IBM1 ibm1 = new IBM1(corpus, 2 * em_iterations);
+        IBM1 ibm1 = new IBM1(corpus, 2 * em_iterations, options);
         this.tau = ibm1.tau;
 
         // Initialize all delta probabilities
         this.setUniformProbabilities();
 
-        // Run EM
-        for (int i = 0; i < em_iterations; i++) {
-            this.train();
-        }
+        // Run EM, for at most em_iterations
+        this.trainUntilConverged(em_iterations);
     }
 
     /**
      * Set all alignment (Delta) probabilities to be uniform.
      */
     public void setUniformProbabilities() {
-        // a(i | j, l, m) = 1 / (l + 1) for all i, j, l, m
-        HashSet<Pair<Integer, Integer>> lmCombinations = new HashSet<>();
-
+        // a(i | m) = 1 / (l + 1), for the l of the last (l, m) combination, in corpus order, with l >= i
+        LinkedHashSet<Pair<Integer, Integer>> lmCombinations = new LinkedHashSet<>();
+        int maxL = 0;
         for (int index = 0; index < this.corpus.size(); index++) {
             AlignedSent alignedSent = this.corpus.get(index);
             int l = alignedSent.getTargetWords().size();
             int m = alignedSent.getSourceWords().size();
+            lmCombinations.add(new Pair<>(l, m));
+            maxL = Math.max(maxL, l);
+        }
+        double[] initialProbs = new double[maxL + 1];
+        for (Pair<Integer, Integer> lm : lmCombinations) {
+            Arrays.fill(initialProbs, 0, lm.getLeft() + 1, 1.0 / (lm.getLeft() + 1.0));
+        }
+
+        // Lay out one contiguous block of (l + 1) * m positions per (l, m) combination, and per (maxL, m)
+        Set<Pair<Integer, Integer>> blocks = new HashSet<>(lmCombinations);
+        for (Pair<Integer, Integer> lm : lmCombinations) {
+            blocks.add(new Pair<>(maxL, lm.getRight()));
+        }
+        this.delta = new AlignmentTable(blocks, DELTA_MIN_PROB);
+        for (int i = 0; i < initialProbs.length; i++) {
+            this.delta.setPositionDefault(i, initialProbs[i]);
+        }
+        for (int[] lm : this.delta.getLengths()) {
+            this.fillBlock(lm[0], lm[1], i -> initialProbs[i]);
+        }
+    }
+
+    /**
+     * Set every entry (i, j) of the (l, m) block of delta to the value of position i.
+     */
+    protected void fillBlock(int l, int m, IntToDoubleFunction value) {
+        for (int i = 0; i < l + 1; i++) {
+            double probability = value.applyAsDouble(i);
+            for (int j = 1; j < m + 1; j++) {
+                this.delta.set(i, j, l, m, probability);
+            }
+        }
+    }
+
+    /**
+     * M - Step: estimate new translation and alignment probabilities from the given counts.
+     */
+    @Override
+    protected double maximization(Counts tauCounts) {
+        AlignmentCounts counts = (AlignmentCounts) tauCounts;
+        double maxChange = 0.0;
+
+        // Reset Tau - Values
+        for (int t = 0; t < this.tau.rows(); t++) {
+            for (int s = 0; s < this.tau.columns(); s++) {
+                double count = counts.getTS(t, s);
+                if (count > 0.0) {
+                    double estimate = Math.max(count / counts.nTO[s], MIN_PROB);
+                    maxChange = Math.max(maxChange, Math.abs(estimate - this.tau.get(t, s)));
+                    this.tau.set(t, s, estimate);
+                }
+            }
+        }
 
-            Pair<Integer, Integer> lm = new Pair<>(l, m);
-            if (!lmCombinations.contains(lm)) {
-                lmCombinations.add(lm);
-                double initialProb = 1.0 / (l + 1.0);
-
-                for (int i = 0; i < l + 1; i++) {
-                    for (int j = 1; j < m + 1; j++) {
-                        DefaultDict<Integer, Double> mProb = new DefaultDict<>(initialProb);
-                        DefaultDict<Integer, DefaultDict<Integer, Double>> lmProb = new DefaultDict<>(o -> mProb);
-                        DefaultDict<Integer, DefaultDict<Integer, DefaultDict<Integer, Double>>> jlmProb = new DefaultDict<>(o -> lmProb);
-                        this.delta.put(i, jlmProb);
+        // Reset Delta - Values: a(i | m) is estimated at the last target position (j = m), in the
+        // longest source sentences of length l >= i that have counts, then shared by every (j, l)
+        Map<Integer, List<Integer>> lengthsByM = new HashMap<>();
+        for (int[] lm : this.delta.getLengths()) {
+            lengthsByM.computeIfAbsent(lm[1], m -> new ArrayList<>()).add(lm[0]);
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : lengthsByM.entrySet()) {
+            int m = entry.getKey();
+            List<Integer> lengths = entry.getValue();
+            int maxL = Collections.max(lengths);
+            for (int i = 0; i < maxL + 1; i++) {
+                int estimatedL = -1;
+                for (int l : lengths) {
+                    if (l >= i && l > estimatedL && counts.getIO(m, l, m) > 0.0) {
+                        estimatedL = l;
+                    }
+                }
+                if (estimatedL == -1) {
+                    continue;
+                }
+                double estimate = Math.max(counts.getIJLM(i, m, estimatedL, m) / counts.getIO(m, estimatedL, m),
+                        MIN_PROB);
+                maxChange = Math.max(maxChange, Math.abs(estimate - this.delta.get(i, m, estimatedL, m)));
+                for (int l : lengths) {
+                    for (int j = 1; j < m + 1 && l >= i; j++) {
+                        this.delta.set(i, j, l, m, estimate);
                     }
                 }
             }
         }
+        return maxChange;
     }
 
     /**
-     * Run one iteration of EM, using the given tau and delta values as prior probabilities.
+     * Also lays out delta blocks for the new (l, m) combinations (and the new longest source length),
+     * holding the current a(i | m), or the initial value of position i for an m never seen.
      */
-    public void train() {
-        AlignmentCounts counts = new AlignmentCounts();
+    @Override
+    protected void growTables(List<AlignedSent> sentences) {
+        super.growTables(sentences);
 
-        // E - Step
-        for (int index = 0; index < this.corpus.size(); index++) {
-            AlignedSent alignedSent = this.corpus.get(index);
-            List<String> sourceSent = alignedSent.getTargetWords();
-            List<String> targetSent = alignedSent.getSourceWords();
-
-            // Prepend NULL Token
-            List<String> nulled = new ArrayList<>();
-            nulled.add(NULL);
-            nulled.addAll(sourceSent);
-            sourceSent = nulled;
-
-            // Prepend Unused Token to Target (1 - Indexed)
-            List<String> modTarget = new ArrayList<>();
-            modTarget.add("UNUSED");
-            modTarget.addAll(targetSent);
-            targetSent = modTarget;
-
-            int l = sourceSent.size() - 1;
-            int m = targetSent.size() - 1;
-
-            // E - Step (a) - Compute normalization factors
-            DefaultDict<String, Double> totalCount = new DefaultDict<>(0.0);
-            for (int j = 1; j < targetSent.size(); j++) {
-                String t = targetSent.get(j);
-                for (int i = 0; i < sourceSent.size(); i++) {
-                    String s = sourceSent.get(i);
-                    totalCount.put(t, totalCount.get(t) + (this.tau.get(t).get(s) * this.delta
-                            .get(i).get(j).get(l).get(m)));
+        int oldMaxL = this.maxDeltaLength();
+        int maxL = oldMaxL;
+        Set<Integer> ms = new HashSet<>();
+        for (int[] lm : this.delta.getLengths()) {
+            ms.add(lm[1]);
+        }
+        LinkedHashSet<Pair<Integer, Integer>> lmCombinations = new LinkedHashSet<>();
+        for (AlignedSent alignedSent : sentences) {
+            int l = alignedSent.getTargetWords().size();
+            int m = alignedSent.getSourceWords().size();
+            lmCombinations.add(new Pair<>(l, m));
+            ms.add(m);
+            maxL = Math.max(maxL, l);
+        }
+        for (Pair<Integer, Integer> lm : lmCombinations) {
+            for (int i = oldMaxL + 1; i < lm.getLeft() + 1; i++) {
+                this.delta.setPositionDefault(i, 1.0 / (lm.getLeft() + 1.0));
+            }
+        }
+        Set<Pair<Integer, Integer>> blocks = new HashSet<>(lmCombinations);
+        for (int m : ms) {
+            blocks.add(new Pair<>(maxL, m));
+        }
+        blocks.removeIf(lm -> this.delta.contains(lm.getLeft(), lm.getRight()));
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        AlignmentTable previous = this.delta;
+        this.delta = this.delta.withLengths(blocks);
+        for (Pair<Integer, Integer> lm : blocks) {
+            int m = lm.getRight();
+            this.fillBlock(lm.getLeft(), m, i -> previous.get(i, m, oldMaxL, m));
+        }
+    }
+
+    /**
+     * Get the longest source length l of the delta table.
+     */
+    protected int maxDeltaLength() {
+        int maxL = 0;
+        for (int[] lm : this.delta.getLengths()) {
+            maxL = Math.max(maxL, lm[0]);
+        }
+        return maxL;
+    }
+
+    /**
+     * Alignment probability delta(i | j, l, m).
+     */
+    @Override
+    protected double alignmentProbability(int i, int j, int l, int m) {
+        return this.delta.get(i, j, l, m);
+    }
+
+    @Override
+    protected Counts newCounts() {
+        return new AlignmentCounts(this.tau.rows(), this.tau.columns(), this.delta);
+    }
+
+    @Override
+    protected IBM2 untrained(ParallelCorpus corpus) {
+        return new IBM2(corpus, 0, this.options);
+    }
+
+    /**
+     * Carries the alignment counts over along with the translation counts.
+     */
+    @Override
+    protected Counts subtractCounts(IBMModel model, Counts counts, Counts heldOut) {
+        AlignmentCounts subtracted = (AlignmentCounts) super.subtractCounts(model, counts, heldOut);
+        AlignmentCounts full = (AlignmentCounts) counts;
+        AlignmentCounts held = (AlignmentCounts) heldOut;
+
+        // Every (l, m) combination of the held-out corpus also occurs in the full corpus
+        for (int[] lm : this.delta.getLengths()) {
+            int l = lm[0];
+            int m = lm[1];
+            for (int i = 0; i < l + 1; i++) {
+                for (int j = 1; j < m + 1; j++) {
+                    double count = remaining(full.getIJLM(i, j, l, m), held.getIJLM(i, j, l, m));
+                    if (count > 0.0) {
+                        subtracted.updateDelta(count, i, j, l, m);
+                    }
                 }
             }
+        }
+        return subtracted;
+    }
+
+    /**
+     * E - Step: collect translation and alignment counts over the corpus sentences with indices
+     * in [from, to).
+     */
+    @Override
+    protected void expectation(int from, int to, Counts counts) {
+        AlignmentCounts alignmentCounts = (AlignmentCounts) counts;
+        double[] totalCount = new double[this.tau.rows()];
+
+        for (int index = from; index < to; index++) {
+            // Source sentence carries the NULL Token at position 0, target positions are 1 - Indexed
+            int[] sourceSent = this.targetIds[index];
+            int[] targetSent = this.sourceIds[index];
+
+            int l = sourceSent.length - 1;
+            int m = targetSent.length;
+
+            // E - Step (a) - Compute normalization factors, and the sentence's likelihood
+            for (int j = 1; j < m + 1; j++) {
+                int t = targetSent[j - 1];
+                double likelihood = 0.0;
+                for (int i = 0; i < sourceSent.length; i++) {
+                    int s = sourceSent[i];
+                    double prob = this.tau.get(t, s) * this.delta.get(i, j, l, m);
+                    totalCount[t] += prob;
+                    likelihood += prob;
+                }
+                alignmentCounts.logLikelihood += Math.log(likelihood);
+            }
 
             // E - Step (b) - Compute counts
-            for (int j = 1; j < targetSent.size(); j++) {
-                String t = targetSent.get(j);
-                for (int i = 0; i < sourceSent.size(); i++) {
-                    String s = sourceSent.get(i);
-                    double count = this.tau.get(t).get(s) * this.delta.get(i).get(j).get(l).get(m);
-                    double normalizedCount = count / totalCount.get(t);
+            for (int j = 1; j < m + 1; j++) {
+                int t = targetSent[j - 1];
+                for (int i = 0; i < sourceSent.length; i++) {
+                    int s = sourceSent[i];
+                    double count = this.tau.get(t, s) * this.delta.get(i, j, l, m);
+                    double normalizedCount = count / totalCount[t];
 
                     // Update tau counts
-                    counts.nTS.get(t).put(s, counts.nTS.get(t).get(s) + normalizedCount);
-                    counts.nTO.put(s, counts.nTO.get(s) + normalizedCount);
+                    alignmentCounts.updateTau(normalizedCount, s, t);
                     // Update delta counts
-                    counts.nIJLM.get(i).get(j).get(l).put(m, counts.nIJLM.get(i).get(j).get(l).get
-                            (m) + normalizedCount);
-                    counts.nIO.get(j).get(l).put(m, counts.nIO.get(j).get(l).get(m) +
-                            normalizedCount);
+                    alignmentCounts.updateDelta(normalizedCount, i, j, l, m);
                 }
             }
-        }
 
-        // M - Step
-        // Reset Tau - Values
-        for (String t : counts.nTS.keySet()) {
-            for (String s : counts.nTS.get(t).keySet()) {
-                double estimate = counts.nTS.get(t).get(s) / counts.nTO.get(s);
-                this.tau.get(t).put(s, Math.max(estimate, MIN_PROB));
+            // Reset normalization factors for the next sentence
+            for (int t : targetSent) {
+                totalCount[t] = 0.0;
             }
         }
+    }
 
-        // Reset Delta - Values
-        for (int i : counts.nIJLM.keySet()) {
-            for (int j : counts.nIJLM.get(i).keySet()) {
-                for (int l : counts.nIJLM.get(i).get(j).keySet()) {
-                    for (int m : counts.nIJLM.get(i).get(j).get(l).keySet()) {
-                        double estimate = counts.nIJLM.get(i).get(j).get(l).get(m) /
-                                counts.nIO.get(j).get(l).get(m);
-                        this.delta.get(i).get(j).get(l).put(m, Math.max(estimate, MIN_PROB));
-                    }
+    /**
+     * Weight of each position a of a candidate of length l, as the product over the source words'
+     * positions k of a(a | m), read from the table's (maxLength, m) block. Positions are 0-based,
+     * as in the original decoder, so that a candidate's first word weighs like NULL.
+     */
+    @Override
+    protected double[][] positionWeights(int m) {
+        return positionWeights(this.delta, this.candidates.getMaxLength(), m);
+    }
+
+    /**
+     * Weight of each position of a candidate, over the given delta table (see positionWeights(int)).
+     *
+     * @param delta Alignment probabilities.
+     * @param maxLength Length of the longest candidate.
+     * @param m Length of the source sentence.
+     * @return Weights indexed [l][a].
+     */
+    protected static double[][] positionWeights(AlignmentTable delta, int maxLength, int m) {
+        double[][] positionWeights = new double[maxLength + 1][];
+        for (int l = 0; l <= maxLength; l++) {
+            positionWeights[l] = new double[l];
+            for (int a = 0; a < l; a++) {
+                double product = 1.0;
+                for (int k = 0; k < m; k++) {
+                    product *= delta.get(a, k + 1, maxLength, m);
                 }
+                positionWeights[l][a] = product;
             }
         }
+        return positionWeights;
     }
 
     /**
-     * Translate a single expression of this IBM model's source language into an expression of the target language
-     * @param sourceExpression A language expression in the model's source language
-     * @return A language expression in the model's target language
+     * Log weight of each position a of a candidate of length l, as the sum over the source words'
+     * positions k of log a(a | m).
      */
     @Override
-    public LanguageExpression translate(LanguageExpression sourceExpression) {
-        List<String> sourceSplit = sourceExpression.getWords();
-        Map<String, Double> exprProbs = new HashMap<>();
-        int m = sourceExpression.getWords().size();
-        double maxLikelihood = Double.NEGATIVE_INFINITY;
-        String likelyExpr = "";
-
-        for (String expr : this.outputSet) {
-            String[] exprSplit = expr.split(" ");
-            int l = exprSplit.length;
-            double likelihood = this.lengthPrior.get(l).get(m);
-            double sum = 0.0;
+    protected double[][] logPositionWeights(int m) {
+        return logPositionWeights(this.delta, this.candidates.getMaxLength(), m);
+    }
 
+    /**
+     * Log weight of each position of a candidate, over the precomputed logarithms of the given
+     * delta table (see logPositionWeights(int)).
+     *
+     * @param delta Alignment probabilities.
+     * @param maxLength Length of the longest candidate.
+     * @param m Length of the source sentence.
+     * @return Log weights indexed [l][a].
+     */
+    protected static double[][] logPositionWeights(AlignmentTable delta, int maxLength, int m) {
+        double[][] logPositionWeights = new double[maxLength + 1][];
+        for (int l = 0; l <= maxLength; l++) {
+            logPositionWeights[l] = new double[l];
             for (int a = 0; a < l; a++) {
-                double product = 1.0;
+                double sum = 0.0;
                 for (int k = 0; k < m; k++) {
-                    product *= this.delta.get(a).get(k).get(l).get(m);
-                    product *= this.tau.get(sourceSplit.get(k)).get(exprSplit[a]);
+                    sum += delta.logGet(a, k + 1, maxLength, m);
                 }
-                sum += product;
-            }
-            likelihood *= sum;
-            if (likelihood > maxLikelihood) {
-                maxLikelihood = likelihood;
-                likelyExpr = expr;
+                logPositionWeights[l][a] = sum;
             }
-            exprProbs.put(expr, likelihood);
         }
-        List<String> translated = Arrays.asList(likelyExpr.split(" "));
-        exprProbs.entrySet().stream().sorted((e1,e2) -> e1.getValue().compareTo(e2.getValue())).forEachOrdered(System.out::println);
+        return logPositionWeights;
+    }
 
-        return new MachineLanguage(translated);
+    /**
+     * Weight of each candidate length l, as the prior probability of l given m.
+     */
+    @Override
+    protected double[] lengthWeights(int m) {
+        double[] lengthWeights = new double[this.candidates.getMaxLength() + 1];
+        for (int l = 0; l < lengthWeights.length; l++) {
+            lengthWeights[l] = this.lengthPrior(l, m);
+        }
+        return lengthWeights;
     }
 
-    public static boolean goodTranslation(List<String> actual, List<String> translated){
-        AtomicBoolean ret = new AtomicBoolean(true);
-        actual.stream().forEach(w -> ret.compareAndSet(!translated.contains(w), false));
-        return ret.get();
+    /**
+     * Log weight of each candidate length l, as the log prior probability of l given m.
+     */
+    @Override
+    protected double[] logLengthWeights(int m) {
+        double[] logLengthWeights = new double[this.candidates.getMaxLength() + 1];
+        for (int l = 0; l < logLengthWeights.length; l++) {
+            logLengthWeights[l] = Math.log(this.lengthPrior(l, m));
+        }
+        return logLengthWeights;
     }
 
+    /**
+     * Run leave-one-out cross validation over the corpus, training one model per held-out
+     * sentence. The folds run concurrently, and the corpus is left untouched.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @return Fraction of held-out sentences translated correctly.
+     */
     public static double runLOOTest(ParallelCorpus corpus){
-        AtomicInteger numCorrect = new AtomicInteger(0);
-        IntStream.range(0, corpus.size()).forEachOrdered(i -> {
-            AlignedSent test = corpus.remove(i);
-            List<String> inputWords = test.getSourceWords();
-            List<String> outputWords = test.getTargetWords();
-            IBM2 ibm2 = new IBM2(corpus, 10);
-            NaturalLanguage input = new NaturalLanguage(inputWords);
-            List<String> output = ibm2.translate(input).getWords();
-            if(goodTranslation(outputWords, output)){
-                numCorrect.getAndIncrement();
-                System.out.println("Performed correct translation");
-                System.out.println("Correctly translated: " + output.toString());
-            }
-            else{
-                System.out.println("Performed incorrect translation");
-                System.out.println("Input: " + inputWords.toString());
-                System.out.println("Expected: " + outputWords.toString());
-                System.out.println("Found: " + output.toString());
-            }
-            System.out.println("");
-            corpus.insert(test, i);
-        });
-        return (double) numCorrect.get() / (double) corpus.size();
+        EvaluationReport report = new CrossValidator(corpus, train -> new IBM2(train, 10)).leaveOneOut();
+        report.print(System.out);
+        return report.getAccuracy();
+    }
+
+    /**
+     * Run an approximate leave-one-out cross validation, training a single model on the whole
+     * corpus and deriving each fold's model from it by subtracting the held-out sentence's
+     * counts (see IBMModel.withHeldOut). The exact cross validation is run alongside it, and
+     * the approximate report is printed with its accuracy difference and agreement against it.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @param warmIterations Number of EM iterations run per fold after the count subtraction.
+     * @return Fraction of held-out sentences translated correctly by the approximate folds.
+     */
+    public static double runWarmLOOTest(ParallelCorpus corpus, int warmIterations){
+        IBM2 ibm2 = new IBM2(corpus, 10);
+        EvaluationReport report = new CrossValidator(ibm2, warmIterations).leaveOneOut();
+        EvaluationReport exact = new CrossValidator(corpus, train -> new IBM2(train, 10)).leaveOneOut();
+        report.print(System.out);
+        report.compare(exact, System.out);
+        return report.getAccuracy();
     }
 
     public static void main(String[] args){
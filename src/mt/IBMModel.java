@@ -1,13 +1,33 @@
 package mt;
 
+import language.LanguageExpression;
 import structures.AlignedSent;
-import structures.DefaultDict;
+import structures.Alignment;
+import structures.AlignmentTable;
+import structures.CandidateSet;
+import structures.CorpusStatistics;
+import structures.Counts;
+import structures.LongDoubleMap;
 import structures.ParallelCorpus;
+import structures.PruningReport;
+import structures.TauTable;
+import structures.Vocabulary;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 /**
  * General Abstract Class for the IBM Model Series of Machine Translation Systems. Implements
@@ -19,26 +39,61 @@ import java.util.Set;
  *
  * Created by Sidd Karamcheti on 3/7/16.
  */
-public abstract class IBMModel {
-    /* tau[str][str]: double ==> Probability(target word | source word)
-     * Indexed as tau.get(target_word).get(source_word) */
-    protected DefaultDict<String, DefaultDict<String, Double>> tau;
+public abstract class IBMModel implements MachineTranslator {
+    /* tau[int][int]: double ==> Probability(target word | source word)
+     * Indexed as tau.get(target_word, source_word), by the ids of sourceIndex and targetIndex */
+    protected TauTable tau;
 
     /* delta[int][int][int][int]: double ==> Probability(i | j, l, m)
-     * Indexed as delta.get(i).get(j).get(l).get(m) */
-    protected DefaultDict<Integer,
-            DefaultDict<Integer, DefaultDict<Integer, DefaultDict<Integer, Double>>>> delta;
+     * Indexed as delta.get(i, j, l, m) */
+    protected AlignmentTable delta;
 
     protected final ParallelCorpus corpus;
+    protected final TrainingOptions options;
+    /* Word ids of the corpus' source language (English) words, and of its target language
+     * (machine) words, where the NULL token always has id 0 */
+    protected final Vocabulary sourceIndex;
+    protected final Vocabulary targetIndex;
+    /* Corpus sentences as word ids: sourceIds[n] for the source words of the n-th sentence,
+     * targetIds[n] for the NULL token followed by its target words */
+    protected int[][] sourceIds;
+    protected int[][] targetIds;
+    /* Number of EM iterations run so far */
+    protected int iterations;
+    /* Version of the parameters, bumped whenever translations may change (see getVersion) */
+    protected final AtomicLong version = new AtomicLong();
+    /* Log-likelihood of the corpus under the parameters of the last two E - Steps, NaN until run */
+    protected double logLikelihood = Double.NaN;
+    protected double previousLogLikelihood = Double.NaN;
+    /* Largest change of any parameter in the last M - Step, NaN until run */
+    protected double parameterChange = Double.NaN;
+    /* Expected counts over the whole corpus under the trained parameters (see withHeldOut) */
+    private Counts trainedCounts;
+    /* Sufficient statistics of stepwise EM (see update), as expected counts per sentence, and the
+     * number of sentences they summarize; null until the first update */
+    protected Counts onlineCounts;
+    protected int onlineSentences;
     protected final Set<String> sourceVocabulary;
     protected final Set<String> targetVocabulary;
-    protected final DefaultDict<Integer, DefaultDict<Integer, Double>> lengthPrior;
-    protected final double targetPrior;
+    /* Prior(l | m), keyed by LongDoubleMap.key(l, m), estimated from the corpus statistics */
+    protected final LongDoubleMap lengthPrior;
+    protected double targetPrior;
     protected final Set<String> outputSet;
+    /* outputSet, tokenized once for decoding */
+    protected CandidateSet candidates;
+    protected Decoder decoder;
+    /* Searches every valid machine expression, up to the length of the longest candidate; built on
+     * first use (see getGrammarDecoder), as most models (e.g. cross validation folds) never need it */
+    private GrammarDecoder grammarDecoder;
     protected static final String NULL = "**N**";
     protected static final double MIN_PROB = 1.0e-12;
     protected static final double TAU_MIN_PROB = 1.0e-12;
     protected static final double DELTA_MIN_PROB = 1.0e-15;
+    /* Shards per worker of a parallel E - Step; each shard allocates its own dense Counts */
+    protected static final int SHARDS_PER_WORKER = 4;
+    /* Counts left after subtracting held-out counts are considered zero below this fraction of the
+     * full count, to absorb floating point cancellation */
+    protected static final double RESIDUAL_COUNT = 1.0e-9;
 
     /**
      * Instantiate an IBMModel object with the specified parallel corpus.
@@ -46,15 +101,31 @@ public abstract class IBMModel {
      * @param corpus Parallel corpus object consisting of weakly aligned source-target pairs.
      */
     public IBMModel(ParallelCorpus corpus) {
+        this(corpus, new TrainingOptions());
+    }
+
+    /**
+     * Instantiate an IBMModel object with the specified parallel corpus and training options.
+     *
+     * @param corpus Parallel corpus object consisting of weakly aligned source-target pairs.
+     * @param options Options controlling how EM is run.
+     */
+    public IBMModel(ParallelCorpus corpus, TrainingOptions options) {
         this.corpus = corpus;
-        this.tau = new DefaultDict<>(o -> new DefaultDict<>(TAU_MIN_PROB));
-        this.delta = new DefaultDict<>(a -> new DefaultDict<>(b -> new DefaultDict<>(c -> new
-                DefaultDict<>(DELTA_MIN_PROB))));
+        this.options = options;
+        this.delta = new AlignmentTable(Collections.emptySet(), DELTA_MIN_PROB);
         this.sourceVocabulary = new HashSet<>();
         this.targetVocabulary = new HashSet<>();
+        this.sourceIndex = new Vocabulary();
+        this.targetIndex = new Vocabulary();
+        this.targetIndex.add(NULL);
         this.outputSet = new HashSet<>();
-        this.lengthPrior = new DefaultDict<>(o -> new DefaultDict<>(MIN_PROB));
+        this.lengthPrior = new LongDoubleMap();
         this.updateVocabulary(corpus);
+        this.encodeCorpus();
+        this.candidates = new CandidateSet(this.outputSet, this.targetIndex);
+        this.decoder = new Decoder(this.candidates);
+        this.tau = new TauTable(this.sourceIndex, this.targetIndex, TAU_MIN_PROB, TAU_MIN_PROB);
         this.computeLengthPrior();
         this.targetPrior = 1.0 / this.targetVocabulary.size();
     }
@@ -66,7 +137,23 @@ public abstract class IBMModel {
      * @param corpus Parallel corpus object consisting of weakly aligned source-target pairs.
      */
     public void updateVocabulary(ParallelCorpus corpus) {
-        corpus.getSentences().stream().forEach(alignedSent -> {
+        CorpusStatistics statistics = corpus.getStatistics();
+        this.outputSet.addAll(statistics.getTargetExpressions());
+        this.sourceVocabulary.addAll(statistics.getSourceWords());
+        this.targetVocabulary.addAll(statistics.getTargetWords());
+        // Sorted, so that word ids do not depend on the order of the sentences
+        statistics.getSourceWords().stream().sorted().forEach(this.sourceIndex::add);
+        statistics.getTargetWords().stream().sorted().forEach(this.targetIndex::add);
+    }
+
+    /**
+     * Add all words from each of the given source and target pairs to the respective vocabulary
+     * sets, and their target expressions to the output set.
+     *
+     * @param sentences Weakly aligned source-target pairs.
+     */
+    public void updateVocabulary(List<AlignedSent> sentences) {
+        sentences.stream().forEach(alignedSent -> {
             StringBuilder sb = new StringBuilder();
             for(String w : alignedSent.getTargetWords()){
                 sb.append(w + " ");
@@ -74,34 +161,758 @@ public abstract class IBMModel {
             this.outputSet.add(sb.toString().trim());
             this.sourceVocabulary.addAll(alignedSent.getSourceWords());
             this.targetVocabulary.addAll(alignedSent.getTargetWords());
+            alignedSent.getSourceWords().forEach(this.sourceIndex::add);
+            alignedSent.getTargetWords().forEach(this.targetIndex::add);
         });
     }
 
     /**
-     * Computes the prior distribution over aligned sentence lengths from the parallel corpus
+     * Translate every sentence of the corpus to word ids, so that EM can run over primitive arrays.
+     */
+    public void encodeCorpus() {
+        this.sourceIds = new int[this.corpus.size()][];
+        this.targetIds = new int[this.corpus.size()][];
+        this.encodeSentences(0);
+    }
+
+    /**
+     * Translate the corpus sentences from index from on to word ids, growing the encoded corpus
+     * to the size of the corpus.
+     *
+     * @param from Index of the first sentence to encode.
+     */
+    protected void encodeSentences(int from) {
+        if (this.sourceIds.length < this.corpus.size()) {
+            this.sourceIds = Arrays.copyOf(this.sourceIds, this.corpus.size());
+            this.targetIds = Arrays.copyOf(this.targetIds, this.corpus.size());
+        }
+        for (int n = from; n < this.corpus.size(); n++) {
+            AlignedSent alignedSent = this.corpus.get(n);
+            this.sourceIds[n] = this.sourceIndex.encode(alignedSent.getSourceWords());
+
+            this.targetIds[n] = this.encodeNulled(alignedSent.getTargetWords());
+        }
+    }
+
+    /**
+     * Translate target (machine) words to word ids, preceded by the id of the NULL token.
+     */
+    protected int[] encodeNulled(List<String> targetWords) {
+        int[] nulled = new int[targetWords.size() + 1];
+        nulled[0] = this.targetIndex.id(NULL);
+        for (int i = 0; i < targetWords.size(); i++) {
+            nulled[i + 1] = this.targetIndex.id(targetWords.get(i));
+        }
+        return nulled;
+    }
+
+    /**
+     * Computes the prior distribution over aligned sentence lengths from the statistics of the
+     * parallel corpus
      */
     public void computeLengthPrior(){
-        DefaultDict<Integer, DefaultDict<Integer, Double>> nLM = new DefaultDict<>(o -> new DefaultDict<>(0.0));
-        DefaultDict<Integer, Double> nLO = new DefaultDict<>(0.0);
+        CorpusStatistics statistics = this.corpus.getStatistics();
+        for (long lm : statistics.getLengths()) {
+            int l = LongDoubleMap.high(lm);
+            int m = LongDoubleMap.low(lm);
+            double estimate = (double) statistics.getLengthCount(l, m) / statistics.getTargetLengthCount(l);
+            this.lengthPrior.put(lm, estimate);
+        }
+    }
+
+    /**
+     * Translate a single expression of this IBM model's source language into the n most likely expressions of the
+     * target language
+     * @param sourceExpression A language expression in the model's source language
+     * @param n Maximum number of translations to return
+     * @return Up to n translations with their likelihoods, most likely first
+     */
+    @Override
+    public List<Translation> translate(LanguageExpression sourceExpression, int n) {
+        int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+        int m = sourceSplit.length; // m is length of source and comes from natural language
+        if (this.options.isLogSpaceDecoding()) {
+            return this.decoder.decodeLog(this.logTokenWeights(sourceSplit), this.logPositionWeights(m),
+                    this.logLengthWeights(m), n);
+        }
+        return this.decoder.decode(this.tokenWeights(sourceSplit), this.positionWeights(m), this.lengthWeights(m), n);
+    }
+
+    /**
+     * Translate like translate(sourceExpression, n), but score every candidate of outputSet
+     * rather than pruning the search. Returns the same translations; useful as a reference.
+     */
+    public List<Translation> translateExhaustive(LanguageExpression sourceExpression, int n) {
+        int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+        int m = sourceSplit.length;
+        if (this.options.isLogSpaceDecoding()) {
+            return this.decoder.decodeLogExhaustive(this.logTokenWeights(sourceSplit), this.logPositionWeights(m),
+                    this.logLengthWeights(m), n);
+        }
+        return this.decoder.decodeExhaustive(this.tokenWeights(sourceSplit), this.positionWeights(m),
+                this.lengthWeights(m), n);
+    }
+
+    /**
+     * Translate like translate(sourceExpression, n), but search every valid expression of the machine language (see
+     * GrammarDecoder) rather than only those of outputSet, so that expressions never seen in training can be produced.
+     * Expressions are no longer than the longest of outputSet, and their words are those of the target vocabulary.
+     * The grammar only has even-length expressions with exactly one agentInRoom, so expressions of the corpus outside
+     * of it (e.g. the odd-length "isBlue isGreen blockInRoom") are never produced. With position weights (IBM Model 2),
+     * each expression is scored and returned in its best ordering, so the ranking is exact over all orderings; HMMs
+     * only score the canonical ordering of each expression (see HMM.translateGrammar).
+     */
+    public List<Translation> translateGrammar(LanguageExpression sourceExpression, int n) {
+        int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+        int m = sourceSplit.length;
+        if (this.options.isLogSpaceDecoding()) {
+            return this.getGrammarDecoder().decodeLog(this.logTokenWeights(sourceSplit), this.logPositionWeights(m),
+                    this.logLengthWeights(m), n);
+        }
+        return this.getGrammarDecoder().decode(this.tokenWeights(sourceSplit), this.positionWeights(m),
+                this.lengthWeights(m), n);
+    }
+
+    /**
+     * Compute the weight of every target word s given a source sentence, as the product over the
+     * source words of tau(source word | s).
+     *
+     * @param sourceSplit Word ids of the source sentence.
+     * @return Weights, indexed by target word id.
+     */
+    protected double[] tokenWeights(int[] sourceSplit) {
+        return this.tau.columnProducts(sourceSplit);
+    }
+
+    /**
+     * Compute the weight of each position of a candidate, given the source sentence length.
+     *
+     * @param m Length of the source sentence.
+     * @return Weights indexed [l][a] for candidates of length l, or null if positions do not matter.
+     */
+    protected double[][] positionWeights(int m) {
+        return null;
+    }
+
+    /**
+     * Compute the weight of each candidate length, given the source sentence length.
+     *
+     * @param m Length of the source sentence.
+     * @return Weights indexed by candidate length, or null if lengths do not matter.
+     */
+    protected double[] lengthWeights(int m) {
+        return null;
+    }
+
+    /**
+     * Log-space counterpart of tokenWeights, summing the precomputed log tau of the source words.
+     *
+     * @param sourceSplit Word ids of the source sentence.
+     * @return Log weights, indexed by target word id.
+     */
+    protected double[] logTokenWeights(int[] sourceSplit) {
+        return this.tau.logColumnSums(sourceSplit);
+    }
+
+    /**
+     * Log-space counterpart of positionWeights.
+     *
+     * @param m Length of the source sentence.
+     * @return Log weights indexed [l][a], or null if positions do not matter.
+     */
+    protected double[][] logPositionWeights(int m) {
+        return null;
+    }
+
+    /**
+     * Log-space counterpart of lengthWeights.
+     *
+     * @param m Length of the source sentence.
+     * @return Log weights indexed by candidate length, or null if lengths do not matter.
+     */
+    protected double[] logLengthWeights(int m) {
+        return null;
+    }
+
+    /**
+     * Look up the prior probability of a target sentence of length l given a source sentence of
+     * length m. This never modifies the table, so it is safe to call from concurrent translations.
+     *
+     * @return Prior probability of the (l, m) combination, or MIN_PROB if it was never seen.
+     */
+    protected double lengthPrior(int l, int m) {
+        return this.lengthPrior.getOrDefault(LongDoubleMap.key(l, m), MIN_PROB);
+    }
+
+    /**
+     * Incorporate a new sentence pair into the trained model with stepwise EM (see update(List)).
+     *
+     * @param sentence Weakly aligned source-target pair.
+     */
+    public void update(AlignedSent sentence) {
+        this.update(Collections.singletonList(sentence));
+    }
+
+    /**
+     * Incorporate a mini-batch of new sentence pairs into the trained model with stepwise EM
+     * (Liang and Klein, 2009), without retraining over the whole corpus.
+     *
+     * The model keeps sufficient statistics (expected counts per sentence), initialized from an
+     * E - Step over its corpus on the first update. Each update appends the batch to the corpus,
+     * extends the vocabularies, output set and tables with its new words, expressions and sentence
+     * lengths, runs the E - Step over the batch only, interpolates the batch's statistics into the
+     * kept ones (with the step size of TrainingOptions.setStepDecay), and runs the M - Step on the
+     * result. Only parameters with a nonzero statistic are re-estimated, as in batch EM.
+     *
+     * The corpus the model was built with must be modifiable (i.e. not a ParallelCorpus.without
+     * view). Updates must not run concurrently with translations or other updates.
+     *
+     * @param batch Weakly aligned source-target pairs.
+     */
+    public void update(List<AlignedSent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (this.onlineCounts == null) {
+            this.onlineCounts = this.newCounts();
+            this.getTrainedCounts().addTo(this.onlineCounts);
+            this.onlineSentences = this.corpus.size();
+            if (this.onlineSentences > 0) {
+                this.onlineCounts.scale(1.0 / this.onlineSentences);
+            }
+        }
+
+        // Extend the corpus, vocabularies, tables and candidates with the batch
+        int from = this.corpus.size();
+        for (AlignedSent sentence : batch) {
+            this.corpus.insert(sentence, this.corpus.size());
+        }
+        this.updateVocabulary(batch);
+        this.encodeSentences(from);
+        this.growTables(batch);
+        this.computeLengthPrior();
+        this.targetPrior = 1.0 / this.targetVocabulary.size();
+        this.candidates = new CandidateSet(this.outputSet, this.targetIndex);
+        this.decoder = new Decoder(this.candidates);
+        this.invalidateGrammarDecoder();
+
+        // E - Step, over the batch
+        Counts statistics = this.newCounts();
+        this.onlineCounts.addTo(statistics);
+        Counts batchCounts = this.newCounts();
+        this.expectation(from, this.corpus.size(), batchCounts);
+
+        // Interpolate, one step of size (k + 1) ^ -decay per sentence, k the sentences seen so far
+        double retained = 1.0;
+        for (int k = this.onlineSentences; k < this.onlineSentences + batch.size(); k++) {
+            retained *= 1.0 - Math.pow(k + 1, -this.options.getStepDecay());
+        }
+        statistics.scale(retained);
+        batchCounts.scale((1.0 - retained) / batch.size());
+        statistics.merge(batchCounts);
+        this.onlineCounts = statistics;
+        this.onlineSentences += batch.size();
+        this.invalidateTrainedCounts();
+
+        // M - Step
+        this.maximization(statistics);
+        this.pruneIteration();
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * Grow the model's tables to its extended vocabularies (and, in models with alignment
+     * probabilities, to the sentence lengths of the new sentences). New tau entries start at the
+     * uniform probability initial training starts from.
+     *
+     * @param sentences Sentences just added to the corpus.
+     */
+    protected void growTables(List<AlignedSent> sentences) {
+        if (this.tau.rows() != this.sourceIndex.size() || this.tau.columns() != this.targetIndex.size()) {
+            this.tau = this.tau.grow(this.sourceIndex, this.targetIndex, 1.0 / this.sourceVocabulary.size());
+        }
+    }
+
+    /**
+     * Compute the most likely (Viterbi) word alignment of every corpus sentence under the current
+     * parameters, and store it in the sentence's Alignment (see AlignedSent.getAlign). Sentences
+     * are aligned in parallel, on the options' pool if they have one.
+     */
+    public void alignCorpus() {
+        Runnable alignAll = () -> IntStream.range(0, this.corpus.size()).parallel().forEach(n ->
+                this.corpus.get(n).getAlign().set(this.viterbi(this.targetIds[n], this.sourceIds[n])));
+        ForkJoinPool pool = this.options.getPool();
+        if (pool == null) {
+            alignAll.run();
+        }
+        else {
+            pool.submit(alignAll).join();
+        }
+    }
+
+    /**
+     * Compute the most likely (Viterbi) word alignment of a sentence under the current parameters,
+     * e.g. of a sentence outside of the corpus. Unknown words are scored with tau's default value.
+     *
+     * @param sentence Weakly aligned source-target pair.
+     * @return Alignment of the sentence (not stored in it).
+     */
+    public Alignment align(AlignedSent sentence) {
+        return new Alignment(this.viterbi(this.encodeNulled(sentence.getTargetWords()),
+                this.sourceIndex.encode(sentence.getSourceWords())));
+    }
+
+    /**
+     * Align every word of a sentence to its most likely position (in the E - Step's notation, each
+     * target word t to the source position i maximizing tau(t | s_i) times the alignment
+     * probability of i); ties go to the earlier position, NULL first.
+     *
+     * @param sourceSent Word ids of the machine words, preceded by NULL.
+     * @param targetSent Word ids of the English words.
+     * @return Packed (English position, machine position) pairs, one per English word, where the
+     *         positions are those of the AlignedSent's word lists and NULL is Alignment.NULL.
+     */
+    protected int[] viterbi(int[] sourceSent, int[] targetSent) {
+        int l = sourceSent.length - 1;
+        int m = targetSent.length;
+        int[] pairs = new int[2 * m];
+        for (int j = 1; j < m + 1; j++) {
+            int t = targetSent[j - 1];
+            int best = 0;
+            double bestProb = -1.0;
+            for (int i = 0; i < sourceSent.length; i++) {
+                double prob = this.tau.get(t, sourceSent[i]) * this.alignmentProbability(i, j, l, m);
+                if (prob > bestProb) {
+                    best = i;
+                    bestProb = prob;
+                }
+            }
+            pairs[2 * (j - 1)] = j - 1;
+            pairs[2 * (j - 1) + 1] = best == 0 ? Alignment.NULL : best - 1;
+        }
+        return pairs;
+    }
+
+    /**
+     * Get the probability of aligning source position i to target position j in sentences of
+     * lengths l and m, as used by viterbi. Uniform (1) for models without alignment probabilities.
+     */
+    protected double alignmentProbability(int i, int j, int l, int m) {
+        return 1.0;
+    }
+
+    /**
+     * Freeze the model's current parameters into an immutable snapshot, which keeps translating
+     * as the model does now while the model goes on training (see SnapshotTranslator). Must not
+     * run concurrently with training or updates of the model.
+     *
+     * @return Snapshot of the model.
+     */
+    public ModelSnapshot snapshot() {
+        return new ModelSnapshot(this);
+    }
+
+    /**
+     * Save the model's vocabularies, parameters and candidate translations in the binary format of
+     * ModelFile, so that MappedModel.load can serve translations without retraining.
+     *
+     * @param path File to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        ModelFile.write(this, path);
+    }
+
+    /**
+     * Check whether a translation is good, i.e. whether it contains every word of the expected
+     * expression.
+     *
+     * @param actual Words of the expected target expression.
+     * @param translated Words of the translated expression.
+     * @return True if all of the expected words appear in the translation.
+     */
+    public static boolean goodTranslation(List<String> actual, List<String> translated){
+        AtomicBoolean ret = new AtomicBoolean(true);
+        actual.stream().forEach(w -> ret.compareAndSet(!translated.contains(w), false));
+        return ret.get();
+    }
+
+    /**
+     * Create an empty Counts structure of the kind collected by this model's E - Step.
+     *
+     * @return Zeroed counts, sized to the model's tables.
+     */
+    protected abstract Counts newCounts();
+
+    /**
+     * Run one iteration of EM, using the model's current parameters as prior probabilities, and
+     * report it to the options' listeners.
+     */
+    public void train() {
+        List<TrainingListener> listeners = this.options.getListeners();
+        if (listeners.isEmpty()) {
+            // E - Step, M - Step
+            Counts counts = this.collectCounts();
+            this.completeIteration(counts.logLikelihood, this.maximization(counts));
+            this.pruneIteration();
+            return;
+        }
+
+        Map<Long, Long> allocated = this.allocatedBytes();
+        long start = System.nanoTime();
+        // E - Step
+        Counts counts = this.collectCounts();
+        long expectationDone = System.nanoTime();
+        // M - Step
+        double change = this.maximization(counts);
+        this.pruneIteration();
+        long maximizationDone = System.nanoTime();
+        Map<Long, Long> allocatedAfter = this.allocatedBytes();
+        this.completeIteration(counts.logLikelihood, change);
+
+        IterationStats stats = new IterationStats(this.iterations, counts.logLikelihood, change,
+                expectationDone - start, maximizationDone - expectationDone, counts.nonzeroTau(),
+                counts.nonzeroDelta(), allocatedBetween(allocated, allocatedAfter));
+        for (TrainingListener listener : listeners) {
+            listener.iterationCompleted(this, stats);
+        }
+    }
+
+    /**
+     * Prune tau after an M - Step, if the options ask for pruning every iteration.
+     */
+    protected void pruneIteration() {
+        if (this.options.isPruneEachIteration()) {
+            this.prune();
+        }
+    }
+
+    /**
+     * Prune tau with the options' threshold and top-k (see TauTable.prune), e.g. once training is
+     * done. Translation then only visits the kept entries.
+     *
+     * @return Report of how much tau shrank.
+     */
+    public PruningReport prune() {
+        return this.prune(this.options.getPruneThreshold(), this.options.getPruneTopK());
+    }
+
+    /**
+     * Prune tau: for every target word keep the translations of probability at least threshold,
+     * and of those only the topK most likely; renormalize the rest (see TauTable.prune).
+     *
+     * @param threshold Smallest probability kept (0 for no threshold).
+     * @param topK Maximum number of translations kept per target word (0 for no limit).
+     * @return Report of how much tau shrank.
+     */
+    public PruningReport prune(double threshold, int topK) {
+        PruningReport report = this.tau.prune(threshold, topK);
+        this.invalidateTrainedCounts();
+        this.version.incrementAndGet();
+        return report;
+    }
+
+    protected void completeIteration(double logLikelihood, double parameterChange) {
+        this.iterations++;
+        this.previousLogLikelihood = this.logLikelihood;
+        this.logLikelihood = logLikelihood;
+        this.parameterChange = parameterChange;
+        this.invalidateTrainedCounts();
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * Run EM until it converges (see hasConverged), for at most maxIterations iterations.
+     *
+     * @param maxIterations Maximum number of iterations to run.
+     * @return Number of iterations actually run.
+     */
+    public int trainUntilConverged(int maxIterations) {
+        int used = 0;
+        while (used < maxIterations) {
+            this.train();
+            used++;
+            if (this.hasConverged()) {
+                break;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Check whether the last EM iteration met one of the options' convergence criteria: a relative
+     * change in log-likelihood at most the tolerance, or a largest parameter change at most the
+     * parameter tolerance. Disabled criteria (a tolerance of 0) are never met.
+     *
+     * @return True if EM has converged.
+     */
+    public boolean hasConverged() {
+        double tolerance = this.options.getTolerance();
+        if (tolerance > 0.0 && !Double.isNaN(this.previousLogLikelihood)
+                && Math.abs(this.logLikelihood - this.previousLogLikelihood)
+                    <= tolerance * Math.abs(this.previousLogLikelihood)) {
+            return true;
+        }
+        double parameterTolerance = this.options.getParameterTolerance();
+        return parameterTolerance > 0.0 && !Double.isNaN(this.parameterChange)
+                && this.parameterChange <= parameterTolerance;
+    }
+
+    /**
+     * Get the log-likelihood of the corpus under the parameters the last E - Step ran with.
+     *
+     * @return Log-likelihood, or NaN if the model was never trained.
+     */
+    public double getLogLikelihood() {
+        return this.logLikelihood;
+    }
+
+    /**
+     * Changes after every EM iteration, update and prune.
+     */
+    @Override
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * Get the number of EM iterations run on this model so far.
+     */
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * Get the number of bytes allocated so far by each thread training runs on: the calling thread
+     * and the live workers of the options' pool.
+     *
+     * @return Allocated bytes by thread id, or null if the JVM does not support allocation accounting.
+     */
+    protected Map<Long, Long> allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        long[] workers = this.options.getWorkerThreadIds();
+        long[] ids = Arrays.copyOf(workers, workers.length + 1);
+        ids[workers.length] = Thread.currentThread().getId();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> bytes = new HashMap<>();
+        for (int k = 0; k < ids.length; k++) {
+            // Threads that ended since their id was read report -1
+            if (allocated[k] >= 0) {
+                bytes.put(ids[k], allocated[k]);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Sum the bytes each thread allocated between two calls to allocatedBytes. Workers started in
+     * between count from zero; workers that ended in between are missed.
+     *
+     * @return Allocated bytes, or -1 if the JVM does not support allocation accounting.
+     */
+    protected static long allocatedBetween(Map<Long, Long> before, Map<Long, Long> after) {
+        if (before == null || after == null) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : after.entrySet()) {
+            total += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+        }
+        return total;
+    }
+
+    /**
+     * Run the M - Step, re-estimating the model's parameters from the given counts.
+     *
+     * @param counts Expected counts, as collected by this model's E - Step.
+     * @return Largest absolute change of any parameter.
+     */
+    protected abstract double maximization(Counts counts);
+
+    /**
+     * Create a model of the same kind and options over the given corpus, with its parameters
+     * initialized but not trained.
+     *
+     * @param corpus Weakly aligned parallel corpus.
+     * @return Untrained model.
+     */
+    protected abstract IBMModel untrained(ParallelCorpus corpus);
+
+    /**
+     * Run the E - Step over the corpus sentences with indices in [from, to), adding the expected
+     * counts to the given Counts structure.
+     *
+     * @param from First sentence index (inclusive).
+     * @param to Last sentence index (exclusive).
+     * @param counts Counts to accumulate into.
+     */
+    protected abstract void expectation(int from, int to, Counts counts);
+
+    /**
+     * Run the E - Step over the whole corpus. With a parallelism above 1 the corpus is split into
+     * shards, each of which fills its own Counts on the options' fork-join pool; the shard counts
+     * are then merged pairwise, as a tree reduction.
+     *
+     * Every shard allocates a full dense Counts (one entry per tau and delta entry), so a parallel
+     * E - Step allocates parallelism * SHARDS_PER_WORKER of them. Merged counts are dropped as the
+     * reduction goes, so that only about one per worker per level of the tree, i.e. at most
+     * parallelism * (1 + log2(parallelism * SHARDS_PER_WORKER)), are live at once. Shards are not
+     * accumulated into per-worker counts, which would make the merge order, and so the rounding
+     * of the counts, depend on scheduling.
+     *
+     * @return Expected counts over the whole corpus.
+     */
+    protected Counts collectCounts() {
+        ForkJoinPool pool = this.options.getPool();
+        if (pool == null) {
+            Counts counts = this.newCounts();
+            this.expectation(0, this.corpus.size(), counts);
+            return counts;
+        }
+        int shards = this.options.getParallelism() * SHARDS_PER_WORKER;
+        int shardSize = Math.max(1, (this.corpus.size() + shards - 1) / shards);
+        return pool.invoke(new ExpectationTask(0, this.corpus.size(), shardSize));
+    }
+
+    /**
+     * Approximate the model that would be trained on the corpus without the given held-out
+     * sentences, without retraining it from uniform probabilities. The expected counts of the
+     * held-out sentences under this (trained) model are subtracted from the whole corpus' counts,
+     * an M - Step is run on what remains, and a few EM iterations are then run on the reduced
+     * corpus starting from those parameters.
+     *
+     * The expected counts over the whole corpus are computed on the first call and reused by later
+     * ones, until the model is trained, updated or pruned again. The model must not change while a
+     * call runs.
+     *
+     * @param heldOut Indices of the sentences to hold out.
+     * @param warmIterations Number of EM iterations to run after the count subtraction.
+     * @return Model trained on the remaining sentences.
+     */
+    public IBMModel withHeldOut(int[] heldOut, int warmIterations) {
+        Counts counts = this.getTrainedCounts();
+        Counts heldOutCounts = this.newCounts();
+        for (int index : heldOut) {
+            this.expectation(index, index + 1, heldOutCounts);
+        }
 
-        for(AlignedSent sent : this.corpus.getSentences()){
-            List<String> sourceSent = sent.getSourceWords();
-            List<String> targetSent = sent.getTargetWords();
-            int l = targetSent.size();
-            int m = sourceSent.size();
+        IBMModel model = this.untrained(this.corpus.without(heldOut));
+        model.maximization(model.subtractCounts(this, counts, heldOutCounts));
+        for (int i = 0; i < warmIterations; i++) {
+            model.train();
+        }
+        return model;
+    }
+
+    /**
+     * Get the GrammarDecoder over the target vocabulary and the longest candidate, building it on
+     * first use.
+     */
+    protected synchronized GrammarDecoder getGrammarDecoder() {
+        if (this.grammarDecoder == null) {
+            this.grammarDecoder = new GrammarDecoder(this.targetIndex, this.targetVocabulary,
+                    this.candidates.getMaxLength());
+        }
+        return this.grammarDecoder;
+    }
+
+    /**
+     * Drop the GrammarDecoder, once the vocabulary or candidates it was built over change (see update).
+     */
+    protected synchronized void invalidateGrammarDecoder() {
+        this.grammarDecoder = null;
+    }
+
+    /**
+     * Get the expected counts over the whole corpus under the current parameters, computing them
+     * on first use.
+     */
+    protected synchronized Counts getTrainedCounts() {
+        if (this.trainedCounts == null) {
+            this.trainedCounts = this.collectCounts();
+        }
+        return this.trainedCounts;
+    }
+
+    /**
+     * Drop the cached expected counts, once the parameters they were computed under change (by
+     * training, updating or pruning), so that the next withHeldOut recomputes them.
+     */
+    protected synchronized void invalidateTrainedCounts() {
+        this.trainedCounts = null;
+    }
+
+    /**
+     * Build this model's counts from the counts another model collected over a superset of this
+     * model's corpus, minus the counts of the sentences that are not part of this model's corpus.
+     * Counts are translated between the two models' word ids.
+     *
+     * @param model Model the counts were collected by.
+     * @param counts Counts over the other model's corpus.
+     * @param heldOut Counts over the sentences missing from this model's corpus.
+     * @return Counts in this model's word ids.
+     */
+    protected Counts subtractCounts(IBMModel model, Counts counts, Counts heldOut) {
+        Counts subtracted = this.newCounts();
+        int[] targets = this.sourceIndex.mapTo(model.sourceIndex);
+        int[] sources = this.targetIndex.mapTo(model.targetIndex);
+        for (int t = 0; t < targets.length; t++) {
+            for (int s = 0; s < sources.length; s++) {
+                double count = remaining(counts.getTS(targets[t], sources[s]),
+                        heldOut.getTS(targets[t], sources[s]));
+                if (count > 0.0) {
+                    subtracted.updateTau(count, s, t);
+                }
+            }
+        }
+        return subtracted;
+    }
+
+    /**
+     * Subtract a held-out count from a full count, flushing cancellation residue to zero.
+     */
+    protected static double remaining(double count, double heldOut) {
+        double remaining = count - heldOut;
+        return remaining > count * RESIDUAL_COUNT ? remaining : 0.0;
+    }
+
+    /**
+     * Fork-join task computing the expected counts of a range of corpus sentences.
+     */
+    protected class ExpectationTask extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
 
-            double updateLM = nLM.get(l).get(m);
-            double updateLO = nLO.get(l);
+        protected final int from;
+        protected final int to;
+        protected final int shardSize;
 
-            nLM.get(l).put(m, updateLM + 1);
-            nLO.put(l, updateLO + 1);
+        protected ExpectationTask(int from, int to, int shardSize) {
+            this.from = from;
+            this.to = to;
+            this.shardSize = shardSize;
         }
 
-        for(int l : nLM.keySet()){
-            for(int m : nLM.get(l).keySet()){
-                double estimate = nLM.get(l).get(m) / nLO.get(l);
-                this.lengthPrior.get(l).put(m, estimate);
+        @Override
+        protected Counts compute() {
+            if (this.to - this.from <= this.shardSize) {
+                Counts counts = IBMModel.this.newCounts();
+                IBMModel.this.expectation(this.from, this.to, counts);
+                return counts;
             }
+            int middle = (this.from + this.to) >>> 1;
+            ExpectationTask left = new ExpectationTask(this.from, middle, this.shardSize);
+            ExpectationTask right = new ExpectationTask(middle, this.to, this.shardSize);
+            left.fork();
+            Counts counts = right.compute();
+            counts.merge(left.join());
+            return counts;
         }
     }
 }
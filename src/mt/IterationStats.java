@@ -0,0 +1,92 @@
+package mt;
+
+/**
+ * Metrics of a single EM iteration, as reported to TrainingListeners.
+ */
+public class IterationStats {
+    protected final int iteration;
+    protected final double logLikelihood;
+    protected final double parameterChange;
+    protected final long expectationNanos;
+    protected final long maximizationNanos;
+    protected final long nonzeroTau;
+    protected final long nonzeroDelta;
+    protected final long allocatedBytes;
+
+    /**
+     * Instantiate the IterationStats of a completed iteration.
+     *
+     * @param iteration Number of the iteration, starting at 1.
+     * @param logLikelihood Corpus log-likelihood under the parameters the E - Step ran with.
+     * @param parameterChange Largest absolute change of any tau or delta entry in the M - Step.
+     * @param expectationNanos Wall time of the E - Step.
+     * @param maximizationNanos Wall time of the M - Step.
+     * @param nonzeroTau Number of tau entries with a nonzero expected count.
+     * @param nonzeroDelta Number of delta entries with a nonzero expected count.
+     * @param allocatedBytes Bytes allocated during the iteration by the training threads, or -1 if
+     *                       the JVM cannot tell.
+     */
+    public IterationStats(int iteration, double logLikelihood, double parameterChange, long expectationNanos,
+                          long maximizationNanos, long nonzeroTau, long nonzeroDelta, long allocatedBytes) {
+        this.iteration = iteration;
+        this.logLikelihood = logLikelihood;
+        this.parameterChange = parameterChange;
+        this.expectationNanos = expectationNanos;
+        this.maximizationNanos = maximizationNanos;
+        this.nonzeroTau = nonzeroTau;
+        this.nonzeroDelta = nonzeroDelta;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public int getIteration() {
+        return this.iteration;
+    }
+
+    /**
+     * Get the log-likelihood of the corpus' source (English) sentences given their target
+     * (machine) sentences, under the parameters the iteration's E - Step ran with. The length prior,
+     * which EM does not change, is left out.
+     */
+    public double getLogLikelihood() {
+        return this.logLikelihood;
+    }
+
+    public double getParameterChange() {
+        return this.parameterChange;
+    }
+
+    public long getExpectationNanos() {
+        return this.expectationNanos;
+    }
+
+    public long getMaximizationNanos() {
+        return this.maximizationNanos;
+    }
+
+    public long getNonzeroTau() {
+        return this.nonzeroTau;
+    }
+
+    public long getNonzeroDelta() {
+        return this.nonzeroDelta;
+    }
+
+    /**
+     * Get the number of bytes allocated during the iteration by the thread that trained the model
+     * and the workers of its E - Step pool, or -1 if the JVM does not support allocation
+     * accounting. Other threads are not counted, but models training concurrently with the same
+     * options share the pool, so its workers' allocations include theirs.
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("iteration %d: log-likelihood %.4f, max parameter change %.3g, E - Step %.3f ms, "
+                        + "M - Step %.3f ms, nonzero tau %d, nonzero delta %d, allocated %d bytes",
+                this.iteration, this.logLikelihood, this.parameterChange, this.expectationNanos / 1.0e6,
+                this.maximizationNanos / 1.0e6,
+                this.nonzeroTau, this.nonzeroDelta, this.allocatedBytes);
+    }
+}
@@ -1,6 +1,12 @@
 package mt;
 
 import language.LanguageExpression;
+import language.MachineLanguage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Created by Dilip Arumugam on 3/8/16.
@@ -12,5 +18,61 @@ public interface MachineTranslator {
      * @param sourceExpression A language expression in the translator's source language
      * @return A language expression in the translator's target language
      */
-    public LanguageExpression translate(LanguageExpression sourceExpression);
+    public default LanguageExpression translate(LanguageExpression sourceExpression) {
+        List<Translation> best = this.translate(sourceExpression, 1);
+        if (best.isEmpty()) {
+            return new MachineLanguage(Collections.emptyList());
+        }
+        return best.get(0).getExpression();
+    }
+
+    /**
+     * Translate a single expression of the translator's source language into the k most likely expressions of the
+     * target language
+     * @param sourceExpression A language expression in the translator's source language
+     * @param k Maximum number of translations to return
+     * @return Up to k translations with their scores, most likely first
+     */
+    public List<Translation> translate(LanguageExpression sourceExpression, int k);
+
+    /**
+     * Get the version of the translator's parameters, which changes whenever its translations may change (e.g. when
+     * the model is retrained), so that translations computed under an older version can be recognized as stale
+     * @return Version of the parameters, 0 for translators whose translations never change
+     */
+    public default long getVersion() {
+        return 0;
+    }
+
+    /**
+     * Translate a batch of expressions of the translator's source language, scoring them in parallel. Translators
+     * used in batch must support concurrent calls to translate
+     * @param sourceExpressions Language expressions in the translator's source language
+     * @return The most likely translation of each expression, in the order of the input
+     */
+    public default List<LanguageExpression> translateAll(List<? extends LanguageExpression> sourceExpressions) {
+        return sourceExpressions.parallelStream().map(this::translate).collect(Collectors.toList());
+    }
+
+    /**
+     * Translate a batch of expressions of the translator's source language into their k most likely expressions of
+     * the target language, scoring them in parallel. Translators used in batch must support concurrent calls to
+     * translate
+     * @param sourceExpressions Language expressions in the translator's source language
+     * @param k Maximum number of translations to return per expression
+     * @return The ranked translations of each expression, in the order of the input
+     */
+    public default List<List<Translation>> translateAll(List<? extends LanguageExpression> sourceExpressions, int k) {
+        return sourceExpressions.parallelStream().map(e -> this.translate(e, k)).collect(Collectors.toList());
+    }
+
+    /**
+     * Translate a stream of expressions of the translator's source language, scoring them in parallel. Translators
+     * used in batch must support concurrent calls to translate
+     * @param sourceExpressions Language expressions in the translator's source language
+     * @return Stream of the most likely translations, in the encounter order of the input
+     */
+    public default Stream<LanguageExpression> translateAll(Stream<? extends LanguageExpression> sourceExpressions) {
+        return sourceExpressions.parallel().map(this::translate);
+    }
 }
@@ -0,0 +1,465 @@
+package mt;
+
+import language.LanguageExpression;
+import structures.CandidateSet;
+import structures.JumpTable;
+import structures.Vocabulary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only translator serving a model saved by IBMModel.save straight from a memory-mapped file
+ * (see ModelFile for the layout). Vocabulary lookups binary search the mapped words and
+ * probabilities are read from the mapped tables, so loading costs no training and builds no hash
+ * maps; only the candidate set is materialized, for the Decoder, along with the (small) jump table
+ * of an HMM, whose candidates are ranked with the forward algorithm as in HMM.translate.
+ *
+ * Translations are identical to those of the saved model, and safe to run concurrently. Models saved
+ * with FLAG_LOG_SPACE decode in log space, like the saved model; the logarithms of their tau, delta
+ * and length prior tables are taken once, as the file is mapped, into tables on the heap.
+ */
+public class MappedModel implements MachineTranslator {
+    protected final int flags;
+    protected final MappedVocabulary sourceIndex;
+    protected final MappedVocabulary targetIndex;
+
+    protected final double tauDefault;
+    protected final int tauColumns;
+    protected final DoubleBuffer tau;
+
+    protected final double deltaDefault;
+    protected final int deltaMaxL;
+    protected final int deltaMaxM;
+    protected final IntBuffer deltaOffsets;
+    protected final DoubleBuffer deltaPositionDefaults;
+    protected final DoubleBuffer delta;
+
+    protected final double lengthDefault;
+    protected final int priorMaxL;
+    protected final int priorMaxM;
+    protected final DoubleBuffer lengthPrior;
+
+    /* Logarithms of the tables above, for decoding in log space (null without FLAG_LOG_SPACE, or with FLAG_JUMPS) */
+    protected final double logTauDefault;
+    protected final DoubleBuffer logTau;
+    protected final double logDeltaDefault;
+    protected final DoubleBuffer logDeltaPositionDefaults;
+    protected final DoubleBuffer logDelta;
+    protected final double logLengthDefault;
+    protected final DoubleBuffer logLengthPrior;
+
+    /* Jump probabilities and NULL token id of an HMM, or null and -1 without FLAG_JUMPS */
+    protected final JumpTable jumps;
+    protected final int nullId;
+
+    protected final CandidateSet candidates;
+    protected final Decoder decoder;
+
+    /**
+     * Instantiate a MappedModel over the mapped contents of a model file.
+     *
+     * @param buffer Contents of the model file.
+     * @throws IOException If the contents are not a model file of a supported version.
+     */
+    protected MappedModel(ByteBuffer buffer) throws IOException {
+        buffer.order(ModelFile.ORDER);
+        if (buffer.capacity() < ModelFile.HEADER_SIZE || buffer.getInt(0) != ModelFile.MAGIC) {
+            throw new IOException("Not a model file");
+        }
+        int version = buffer.getInt(4);
+        if (version != ModelFile.VERSION) {
+            throw new IOException("Unsupported model file version " + version + ", expected " + ModelFile.VERSION);
+        }
+        this.flags = buffer.getInt(8);
+        this.tauDefault = buffer.getDouble(ModelFile.TAU_DEFAULT_POSITION);
+        this.deltaDefault = buffer.getDouble(ModelFile.DELTA_DEFAULT_POSITION);
+        this.lengthDefault = buffer.getDouble(ModelFile.LENGTH_DEFAULT_POSITION);
+
+        this.sourceIndex = new MappedVocabulary(section(buffer, ModelFile.SOURCE_VOCABULARY));
+        this.targetIndex = new MappedVocabulary(section(buffer, ModelFile.TARGET_VOCABULARY));
+
+        ByteBuffer tauSection = section(buffer, ModelFile.TAU);
+        this.tauColumns = tauSection.getInt(4);
+        this.tau = slice(tauSection, 8).asDoubleBuffer();
+
+        ByteBuffer deltaSection = section(buffer, ModelFile.DELTA);
+        this.deltaMaxL = deltaSection.getInt(0);
+        this.deltaMaxM = deltaSection.getInt(4);
+        int offsets = (this.deltaMaxL + 1) * (this.deltaMaxM + 1);
+        this.deltaOffsets = slice(deltaSection, 12).asIntBuffer();
+        this.deltaPositionDefaults = slice(deltaSection, ModelFile.align(12 + 4 * offsets)).asDoubleBuffer();
+        this.delta = slice(deltaSection, ModelFile.align(12 + 4 * offsets) + 8 * (this.deltaMaxL + 1))
+                .asDoubleBuffer();
+
+        ByteBuffer priorSection = section(buffer, ModelFile.LENGTH_PRIOR);
+        this.priorMaxL = priorSection.getInt(0);
+        this.priorMaxM = priorSection.getInt(4);
+        this.lengthPrior = slice(priorSection, 8).asDoubleBuffer();
+
+        // HMMs rank by the forward algorithm over the probabilities themselves, even in log space
+        boolean logTables = (this.flags & ModelFile.FLAG_LOG_SPACE) != 0 && (this.flags & ModelFile.FLAG_JUMPS) == 0;
+        this.logTauDefault = Math.log(this.tauDefault);
+        this.logTau = logTables ? logTable(this.tau, tauSection.getInt(0) * this.tauColumns) : null;
+        this.logDeltaDefault = Math.log(this.deltaDefault);
+        this.logDeltaPositionDefaults = logTables ? logTable(this.deltaPositionDefaults, this.deltaMaxL + 1) : null;
+        this.logDelta = logTables ? logTable(this.delta, deltaSection.getInt(8)) : null;
+        this.logLengthDefault = Math.log(this.lengthDefault);
+        this.logLengthPrior = logTables
+                ? logTable(this.lengthPrior, (this.priorMaxL + 1) * (this.priorMaxM + 1)) : null;
+
+        this.candidates = this.readCandidates(section(buffer, ModelFile.CANDIDATES));
+        this.decoder = new Decoder(this.candidates);
+
+        if ((this.flags & ModelFile.FLAG_JUMPS) != 0) {
+            this.jumps = readJumps(section(buffer, ModelFile.JUMPS));
+            this.nullId = this.targetIndex.id(IBMModel.NULL);
+        }
+        else {
+            this.jumps = null;
+            this.nullId = -1;
+        }
+    }
+
+    /**
+     * Memory-map a model file.
+     *
+     * @param path File written by IBMModel.save.
+     * @return Translator serving the saved model.
+     * @throws IOException If the file cannot be read, is larger than a mapped buffer (Integer.MAX_VALUE
+     *                     bytes), or is not a model file of a supported version.
+     */
+    public static MappedModel load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Model file of " + size + " bytes exceeds the limit of " + Integer.MAX_VALUE
+                        + " bytes of a mapped model");
+            }
+            return new MappedModel(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Get a view of a section of the file, starting at its offset in the section table.
+     *
+     * @throws IOException If the offset lies outside of the file.
+     */
+    protected static ByteBuffer section(ByteBuffer buffer, int section) throws IOException {
+        long offset = buffer.getLong(ModelFile.SECTION_TABLE_POSITION + 8 * section);
+        if (offset < ModelFile.HEADER_SIZE || offset > buffer.capacity()) {
+            throw new IOException("Section " + section + " at offset " + offset + " lies outside of the "
+                    + buffer.capacity() + " bytes of the model file");
+        }
+        return slice(buffer, (int) offset);
+    }
+
+    /**
+     * Get a view of a buffer from the given position on, in the file's byte order.
+     */
+    protected static ByteBuffer slice(ByteBuffer buffer, int position) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate.slice().order(ModelFile.ORDER);
+    }
+
+    /**
+     * Take the logarithm of the first size values of a mapped table, into a table on the heap.
+     */
+    protected static DoubleBuffer logTable(DoubleBuffer table, int size) {
+        double[] logTable = new double[size];
+        for (int index = 0; index < logTable.length; index++) {
+            logTable[index] = Math.log(table.get(index));
+        }
+        return DoubleBuffer.wrap(logTable);
+    }
+
+    protected CandidateSet readCandidates(ByteBuffer section) {
+        int count = section.getInt(0);
+        IntBuffer offsets = slice(section, 4).asIntBuffer();
+        IntBuffer ids = slice(section, 4 + 4 * (count + 1)).asIntBuffer();
+
+        List<List<String>> words = new ArrayList<>(count);
+        int[][] candidateIds = new int[count][];
+        for (int c = 0; c < count; c++) {
+            int from = offsets.get(c);
+            int[] expression = new int[offsets.get(c + 1) - from];
+            String[] expressionWords = new String[expression.length];
+            for (int a = 0; a < expression.length; a++) {
+                expression[a] = ids.get(from + a);
+                expressionWords[a] = this.targetIndex.word(expression[a]);
+            }
+            candidateIds[c] = expression;
+            words.add(Collections.unmodifiableList(Arrays.asList(expressionWords)));
+        }
+        return new CandidateSet(words, candidateIds, this.targetIndex.size());
+    }
+
+    protected static JumpTable readJumps(ByteBuffer section) {
+        int size = section.getInt(0);
+        int maxJump = size / 2;
+        DoubleBuffer values = slice(section, 8).asDoubleBuffer();
+        JumpTable jumps = new JumpTable(maxJump, 0.0, values.get(0));
+        for (int d = -maxJump; d <= maxJump; d++) {
+            jumps.set(d, values.get(1 + d + maxJump));
+        }
+        return jumps;
+    }
+
+    @Override
+    public List<Translation> translate(LanguageExpression sourceExpression, int n) {
+        List<String> words = sourceExpression.getWords();
+        int[] sourceSplit = new int[words.size()];
+        for (int k = 0; k < sourceSplit.length; k++) {
+            sourceSplit[k] = this.sourceIndex.id(words.get(k));
+        }
+        int m = sourceSplit.length;
+        boolean logSpace = (this.flags & ModelFile.FLAG_LOG_SPACE) != 0;
+        if (this.jumps != null) {
+            return HMM.rank(sourceSplit, this.candidates, this.nullId, this::tau, this.jumps, this.lengthWeights(m),
+                    logSpace, n);
+        }
+        if (logSpace) {
+            return this.translateLog(sourceSplit, n);
+        }
+        if ((this.flags & ModelFile.FLAG_ALIGNMENT) == 0) {
+            return this.decoder.decode(this.tokenWeights(sourceSplit), null, null, n);
+        }
+        return this.decoder.decode(this.tokenWeights(sourceSplit), this.positionWeights(m), this.lengthWeights(m), n);
+    }
+
+    /**
+     * Translate in log space, like IBMModel.translate with log-space decoding.
+     */
+    protected List<Translation> translateLog(int[] sourceSplit, int n) {
+        int m = sourceSplit.length;
+        if ((this.flags & ModelFile.FLAG_ALIGNMENT) == 0) {
+            return this.decoder.decodeLog(this.logTokenWeights(sourceSplit), null, null, n);
+        }
+        return this.decoder.decodeLog(this.logTokenWeights(sourceSplit), this.logPositionWeights(m),
+                this.logLengthWeights(m), n);
+    }
+
+    /**
+     * Look up tau(t | s), with the bounds of TauTable.get.
+     */
+    protected double tau(int t, int s) {
+        return t < 0 || s < 0 ? this.tauDefault : this.tau.get(t * this.tauColumns + s);
+    }
+
+    /**
+     * Look up log tau(t | s), from the log table.
+     */
+    protected double logTau(int t, int s) {
+        return t < 0 || s < 0 ? this.logTauDefault : this.logTau.get(t * this.tauColumns + s);
+    }
+
+    /**
+     * Same as IBMModel.tokenWeights, over the mapped tau table.
+     */
+    protected double[] tokenWeights(int[] sourceSplit) {
+        double[] tokenWeights = new double[this.tauColumns];
+        for (int s = 0; s < tokenWeights.length; s++) {
+            double product = 1.0;
+            for (int t : sourceSplit) {
+                product *= this.tau(t, s);
+            }
+            tokenWeights[s] = product;
+        }
+        return tokenWeights;
+    }
+
+    /**
+     * Same as IBM2.positionWeights, over the mapped delta table.
+     */
+    protected double[][] positionWeights(int m) {
+        int maxLength = this.candidates.getMaxLength();
+        double[][] positionWeights = new double[maxLength + 1][];
+        for (int l = 0; l <= maxLength; l++) {
+            positionWeights[l] = new double[l];
+            for (int a = 0; a < l; a++) {
+                double product = 1.0;
+                for (int k = 0; k < m; k++) {
+                    product *= this.delta(a, k + 1, maxLength, m);
+                }
+                positionWeights[l][a] = product;
+            }
+        }
+        return positionWeights;
+    }
+
+    /**
+     * Same as IBM2.lengthWeights (and HMM.lengthWeights), over the mapped length prior.
+     */
+    protected double[] lengthWeights(int m) {
+        double[] lengthWeights = new double[this.candidates.getMaxLength() + 1];
+        for (int l = 0; l < lengthWeights.length; l++) {
+            lengthWeights[l] = l <= this.priorMaxL && m <= this.priorMaxM
+                    ? this.lengthPrior.get(l * (this.priorMaxM + 1) + m) : this.lengthDefault;
+        }
+        return lengthWeights;
+    }
+
+    /**
+     * Same as IBMModel.logTokenWeights (TauTable.logColumnSums), over the mapped tau table.
+     */
+    protected double[] logTokenWeights(int[] sourceSplit) {
+        double[] logTokenWeights = new double[this.tauColumns];
+        for (int s = 0; s < logTokenWeights.length; s++) {
+            double sum = 0.0;
+            for (int t : sourceSplit) {
+                sum += this.logTau(t, s);
+            }
+            logTokenWeights[s] = sum;
+        }
+        return logTokenWeights;
+    }
+
+    /**
+     * Same as IBM2.logPositionWeights, over the mapped delta table.
+     */
+    protected double[][] logPositionWeights(int m) {
+        int maxLength = this.candidates.getMaxLength();
+        double[][] logPositionWeights = new double[maxLength + 1][];
+        for (int l = 0; l <= maxLength; l++) {
+            logPositionWeights[l] = new double[l];
+            for (int a = 0; a < l; a++) {
+                double sum = 0.0;
+                for (int k = 0; k < m; k++) {
+                    sum += this.logDelta(a, k + 1, maxLength, m);
+                }
+                logPositionWeights[l][a] = sum;
+            }
+        }
+        return logPositionWeights;
+    }
+
+    /**
+     * Same as IBM2.logLengthWeights, over the log length prior.
+     */
+    protected double[] logLengthWeights(int m) {
+        double[] logLengthWeights = new double[this.candidates.getMaxLength() + 1];
+        for (int l = 0; l < logLengthWeights.length; l++) {
+            logLengthWeights[l] = l <= this.priorMaxL && m <= this.priorMaxM
+                    ? this.logLengthPrior.get(l * (this.priorMaxM + 1) + m) : this.logLengthDefault;
+        }
+        return logLengthWeights;
+    }
+
+    /**
+     * Look up delta(i | j, l, m), with the bounds and position defaults of AlignmentTable.get.
+     */
+    protected double delta(int i, int j, int l, int m) {
+        int index = this.deltaIndex(i, j, l, m);
+        if (index == -1) {
+            return i >= 0 && i <= this.deltaMaxL ? this.deltaPositionDefaults.get(i) : this.deltaDefault;
+        }
+        return this.delta.get(index);
+    }
+
+    /**
+     * Look up log delta(i | j, l, m), from the log tables.
+     */
+    protected double logDelta(int i, int j, int l, int m) {
+        int index = this.deltaIndex(i, j, l, m);
+        if (index == -1) {
+            return i >= 0 && i <= this.deltaMaxL ? this.logDeltaPositionDefaults.get(i) : this.logDeltaDefault;
+        }
+        return this.logDelta.get(index);
+    }
+
+    /**
+     * Get the index of delta(i | j, l, m) in the delta table, or -1 if it is not stored.
+     */
+    protected int deltaIndex(int i, int j, int l, int m) {
+        if (l > this.deltaMaxL || m > this.deltaMaxM || i < 0 || i > l || j < 1 || j > m) {
+            return -1;
+        }
+        int offset = this.deltaOffsets.get(l * (this.deltaMaxM + 1) + m);
+        return offset == -1 ? -1 : offset + i * m + (j - 1);
+    }
+
+    /**
+     * Vocabulary section of a model file: word ids are found by binary search over the words'
+     * UTF-8 bytes, in place.
+     */
+    protected static class MappedVocabulary {
+        protected final int size;
+        protected final IntBuffer sorted;
+        protected final IntBuffer offsets;
+        protected final ByteBuffer bytes;
+
+        protected MappedVocabulary(ByteBuffer section) {
+            this.size = section.getInt(0);
+            this.sorted = slice(section, 4).asIntBuffer();
+            this.offsets = slice(section, 4 + 4 * this.size).asIntBuffer();
+            this.bytes = slice(section, 4 + 4 * this.size + 4 * (this.size + 1));
+        }
+
+        /**
+         * Get the id of a word, or Vocabulary.UNKNOWN if it is not part of the vocabulary.
+         */
+        public int id(String word) {
+            byte[] key = word.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = this.size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int id = this.sorted.get(middle);
+                int cmp = this.compare(id, key);
+                if (cmp < 0) {
+                    low = middle + 1;
+                }
+                else if (cmp > 0) {
+                    high = middle - 1;
+                }
+                else {
+                    return id;
+                }
+            }
+            return Vocabulary.UNKNOWN;
+        }
+
+        /**
+         * Get the word with the given id.
+         */
+        public String word(int id) {
+            int from = this.offsets.get(id);
+            byte[] word = new byte[this.offsets.get(id + 1) - from];
+            for (int b = 0; b < word.length; b++) {
+                word[b] = this.bytes.get(from + b);
+            }
+            return new String(word, StandardCharsets.UTF_8);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Compare the word with the given id to a key, as in ModelFile.compare.
+         */
+        protected int compare(int id, byte[] key) {
+            int from = this.offsets.get(id);
+            int length = this.offsets.get(id + 1) - from;
+            int common = Math.min(length, key.length);
+            for (int b = 0; b < common; b++) {
+                int cmp = (this.bytes.get(from + b) & 0xFF) - (key[b] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - key.length;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package mt;
+
+import structures.JumpTable;
+import structures.LongDoubleMap;
+import structures.Vocabulary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Versioned binary format of a trained IBM Model or HMM, laid out so that MappedModel can serve
+ * translations straight from a memory-mapped file.
+ *
+ * Layout (big endian, every section starting on an 8 byte boundary):
+ *      Header:             magic, version, flags, section count (ints), default tau, delta and
+ *                          length prior values (doubles), then the offset of each section (longs)
+ *      Source vocabulary:  count, ids in UTF-8 byte order (for binary search), byte offsets of
+ *                          each word by id (count + 1 ints), then the UTF-8 bytes of the words
+ *      Target vocabulary:  as the source vocabulary
+ *      Tau:                rows, columns (ints), then tau(t | s) at t * columns + s (doubles)
+ *      Candidates:         count, offsets of each candidate (count + 1 ints), then word ids
+ *      Delta:              maxL, maxM, size (ints), offset of each (l, m) block at l * (maxM + 1) + m
+ *                          (ints, -1 if absent), the default value of each position i = 0 ... maxL,
+ *                          then the blocks, laid out as in AlignmentTable (doubles)
+ *      Length prior:       maxL, maxM (ints), then Prior(l | m) at l * (maxM + 1) + m (doubles)
+ *      Jumps:              size (int), then the default value and c(d) for d = -maxJump ... maxJump,
+ *                          where size = 2 * maxJump + 1 (doubles)
+ *
+ * MappedModel maps the whole file into a single buffer, so files are limited to Integer.MAX_VALUE
+ * bytes; write fails with an IllegalArgumentException, before writing anything, for larger models.
+ *
+ * Models without alignment probabilities (IBM Model 1) have an empty delta section and no
+ * FLAG_ALIGNMENT; they decode without position or length weights. Only HMMs fill the jump section,
+ * with FLAG_JUMPS; they rank candidates with the forward algorithm, weighted by the length prior.
+ * Models decoding in log space (see TrainingOptions.setLogSpaceDecoding) are saved with
+ * FLAG_LOG_SPACE, and MappedModel scores their translations by log-likelihood as well.
+ */
+public class ModelFile {
+    public static final int MAGIC = 0x49424D4D;
+    public static final int VERSION = 3;
+    /* Set when translations are weighted by the delta and length prior sections */
+    public static final int FLAG_ALIGNMENT = 1;
+    /* Set when candidates are ranked by the HMM forward algorithm, over the jump section */
+    public static final int FLAG_JUMPS = 2;
+    /* Set when translations are scored in log space */
+    public static final int FLAG_LOG_SPACE = 4;
+
+    protected static final int SOURCE_VOCABULARY = 0;
+    protected static final int TARGET_VOCABULARY = 1;
+    protected static final int TAU = 2;
+    protected static final int CANDIDATES = 3;
+    protected static final int DELTA = 4;
+    protected static final int LENGTH_PRIOR = 5;
+    protected static final int JUMPS = 6;
+    protected static final int SECTIONS = 7;
+
+    protected static final int TAU_DEFAULT_POSITION = 16;
+    protected static final int DELTA_DEFAULT_POSITION = 24;
+    protected static final int LENGTH_DEFAULT_POSITION = 32;
+    protected static final int SECTION_TABLE_POSITION = 40;
+    protected static final int HEADER_SIZE = SECTION_TABLE_POSITION + 8 * SECTIONS;
+
+    protected static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+
+    /**
+     * Write a trained model to a file, replacing it if it exists.
+     *
+     * @param model Model to save.
+     * @param path File to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(IBMModel model, Path path) throws IOException {
+        write(model, null, path);
+    }
+
+    /**
+     * Write a trained model to a file, replacing it if it exists.
+     *
+     * @param model Model to save.
+     * @param jumps Jump probabilities of an HMM, or null for IBM Models.
+     * @param path File to write to.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If the model does not fit in a file of Integer.MAX_VALUE bytes.
+     */
+    public static void write(IBMModel model, JumpTable jumps, Path path) throws IOException {
+        ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+        sections[SOURCE_VOCABULARY] = vocabularySection(model.sourceIndex);
+        sections[TARGET_VOCABULARY] = vocabularySection(model.targetIndex);
+        sections[TAU] = tauSection(model);
+        sections[CANDIDATES] = candidateSection(model);
+        sections[DELTA] = deltaSection(model);
+        sections[LENGTH_PRIOR] = lengthPriorSection(model);
+        sections[JUMPS] = jumpSection(jumps);
+
+        ByteBuffer header = allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt((model.delta.size() > 0 ? FLAG_ALIGNMENT : 0) | (jumps != null ? FLAG_JUMPS : 0)
+                | (model.options.isLogSpaceDecoding() ? FLAG_LOG_SPACE : 0));
+        header.putInt(SECTIONS);
+        header.putDouble(IBMModel.TAU_MIN_PROB);
+        header.putDouble(IBMModel.DELTA_MIN_PROB);
+        header.putDouble(IBMModel.MIN_PROB);
+        long offset = HEADER_SIZE;
+        for (ByteBuffer section : sections) {
+            header.putLong(offset);
+            offset += section.capacity();
+        }
+        checkSize("Model file", offset);
+
+        ByteBuffer[] buffers = new ByteBuffer[SECTIONS + 1];
+        buffers[0] = header;
+        System.arraycopy(sections, 0, buffers, 1, SECTIONS);
+        for (ByteBuffer buffer : buffers) {
+            buffer.clear();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = offset;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        }
+    }
+
+    protected static ByteBuffer vocabularySection(Vocabulary vocabulary) {
+        int count = vocabulary.size();
+        byte[][] words = new byte[count][];
+        long bytes = 0;
+        for (int id = 0; id < count; id++) {
+            words[id] = vocabulary.word(id).getBytes(StandardCharsets.UTF_8);
+            bytes += words[id].length;
+        }
+        Integer[] sorted = new Integer[count];
+        for (int id = 0; id < count; id++) {
+            sorted[id] = id;
+        }
+        Arrays.sort(sorted, Comparator.comparing(id -> words[id], ModelFile::compare));
+
+        ByteBuffer section = allocate(4 + 4L * count + 4L * (count + 1) + bytes);
+        section.putInt(count);
+        for (int id : sorted) {
+            section.putInt(id);
+        }
+        int position = 0;
+        for (byte[] word : words) {
+            section.putInt(position);
+            position += word.length;
+        }
+        section.putInt(position);
+        for (byte[] word : words) {
+            section.put(word);
+        }
+        return section;
+    }
+
+    protected static ByteBuffer tauSection(IBMModel model) {
+        int rows = model.tau.rows();
+        int columns = model.tau.columns();
+        ByteBuffer section = allocate(8 + 8L * rows * columns);
+        section.putInt(rows);
+        section.putInt(columns);
+        for (int t = 0; t < rows; t++) {
+            for (int s = 0; s < columns; s++) {
+                section.putDouble(model.tau.get(t, s));
+            }
+        }
+        return section;
+    }
+
+    protected static ByteBuffer candidateSection(IBMModel model) {
+        int count = model.candidates.size();
+        long ids = 0;
+        for (int c = 0; c < count; c++) {
+            ids += model.candidates.getIds(c).length;
+        }
+        ByteBuffer section = allocate(4 + 4L * (count + 1) + 4 * ids);
+        section.putInt(count);
+        int position = 0;
+        for (int c = 0; c < count; c++) {
+            section.putInt(position);
+            position += model.candidates.getIds(c).length;
+        }
+        section.putInt(position);
+        for (int c = 0; c < count; c++) {
+            for (int id : model.candidates.getIds(c)) {
+                section.putInt(id);
+            }
+        }
+        return section;
+    }
+
+    protected static ByteBuffer deltaSection(IBMModel model) {
+        List<int[]> lengths = model.delta.getLengths();
+        int maxL = 0;
+        int maxM = 0;
+        for (int[] lm : lengths) {
+            maxL = Math.max(maxL, lm[0]);
+            maxM = Math.max(maxM, lm[1]);
+        }
+        long blocks = (maxL + 1L) * (maxM + 1L);
+        long size = 0;
+        for (int[] lm : lengths) {
+            size += (lm[0] + 1L) * lm[1];
+        }
+        ByteBuffer section = allocate(align(12 + 4 * blocks) + 8L * (maxL + 1) + 8 * size);
+
+        // The section fits in a buffer, so do the block count and the offsets of its doubles
+        int[] offsets = new int[(int) blocks];
+        Arrays.fill(offsets, -1);
+        int offset = 0;
+        for (int[] lm : lengths) {
+            offsets[lm[0] * (maxM + 1) + lm[1]] = offset;
+            offset += (lm[0] + 1) * lm[1];
+        }
+        section.putInt(maxL);
+        section.putInt(maxM);
+        section.putInt(offset);
+        for (int blockOffset : offsets) {
+            section.putInt(blockOffset);
+        }
+        section.position(align(section.position()));
+        double[] positionDefaults = model.delta.getPositionDefaults();
+        for (int i = 0; i < maxL + 1; i++) {
+            section.putDouble(i < positionDefaults.length ? positionDefaults[i] : model.delta.getDefaultValue());
+        }
+        for (int[] lm : lengths) {
+            int l = lm[0];
+            int m = lm[1];
+            for (int i = 0; i < l + 1; i++) {
+                for (int j = 1; j < m + 1; j++) {
+                    section.putDouble(model.delta.get(i, j, l, m));
+                }
+            }
+        }
+        return section;
+    }
+
+    protected static ByteBuffer lengthPriorSection(IBMModel model) {
+        int maxL = 0;
+        int maxM = 0;
+        for (long lm : model.lengthPrior.keys()) {
+            maxL = Math.max(maxL, LongDoubleMap.high(lm));
+            maxM = Math.max(maxM, LongDoubleMap.low(lm));
+        }
+        ByteBuffer section = allocate(8 + 8L * (maxL + 1) * (maxM + 1));
+        section.putInt(maxL);
+        section.putInt(maxM);
+        for (int l = 0; l <= maxL; l++) {
+            for (int m = 0; m <= maxM; m++) {
+                section.putDouble(model.lengthPrior(l, m));
+            }
+        }
+        return section;
+    }
+
+    protected static ByteBuffer jumpSection(JumpTable jumps) {
+        if (jumps == null) {
+            return allocate(16);
+        }
+        int maxJump = jumps.getMaxJump();
+        ByteBuffer section = allocate(16 + 8L * jumps.size());
+        section.putInt(jumps.size());
+        section.position(8);
+        section.putDouble(jumps.getDefaultValue());
+        for (int d = -maxJump; d <= maxJump; d++) {
+            section.putDouble(jumps.get(d));
+        }
+        return section;
+    }
+
+    /**
+     * Allocate a zeroed section buffer, padded to a multiple of 8 bytes.
+     *
+     * @throws IllegalArgumentException If the padded size exceeds Integer.MAX_VALUE bytes.
+     */
+    protected static ByteBuffer allocate(long size) {
+        long aligned = align(size);
+        checkSize("Model file section", aligned);
+        return ByteBuffer.allocate((int) aligned).order(ORDER);
+    }
+
+    /**
+     * Fail fast on sizes that a single (mapped) buffer cannot hold.
+     */
+    protected static void checkSize(String what, long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(what + " of " + size + " bytes exceeds the limit of "
+                    + Integer.MAX_VALUE + " bytes of a mapped model");
+        }
+    }
+
+    protected static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    protected static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Compare two byte strings lexicographically, as unsigned bytes (i.e. in UTF-8 code point order).
+     */
+    protected static int compare(byte[] left, byte[] right) {
+        int length = Math.min(left.length, right.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (left[i] & 0xFF) - (right[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return left.length - right.length;
+    }
+}
@@ -0,0 +1,123 @@
+package mt;
+
+import language.LanguageExpression;
+import structures.AlignmentTable;
+import structures.CandidateSet;
+import structures.LongDoubleMap;
+import structures.TauTable;
+import structures.Vocabulary;
+
+import java.util.List;
+
+/**
+ * Frozen, immutable copy of the parameters an IBM Model translates with (see IBMModel.snapshot).
+ * Later training, updates or pruning of the model never show through, so a snapshot can serve any
+ * number of concurrent translations without locking while its model keeps training.
+ *
+ * Translations are identical to those of the model at the time the snapshot was taken. Models with
+ * alignment probabilities (a non-empty delta table, as in ModelFile) weight translations by
+ * position and length, like IBM Model 2.
+ *
+ * Snapshots of models decoding in log space (see TrainingOptions.setLogSpaceDecoding) take the
+ * logarithms of their tables once, when frozen, so that translations only add them up.
+ */
+public class ModelSnapshot implements MachineTranslator {
+    protected final Vocabulary sourceIndex;
+    protected final TauTable tau;
+    protected final AlignmentTable delta;
+    protected final LongDoubleMap lengthPrior;
+    /* Candidate sets and decoders are never modified once built, so they are shared with the model */
+    protected final CandidateSet candidates;
+    protected final Decoder decoder;
+    protected final boolean logSpace;
+    protected final long version;
+    protected final int iterations;
+    protected final double logLikelihood;
+
+    /**
+     * Instantiate a ModelSnapshot of the current parameters of a model, which must not be trained
+     * or updated while the snapshot is taken.
+     *
+     * @param model Model to freeze.
+     */
+    protected ModelSnapshot(IBMModel model) {
+        this.sourceIndex = model.sourceIndex.copy();
+        this.tau = model.tau.copy(this.sourceIndex, model.targetIndex.copy());
+        this.delta = model.delta.copy();
+        this.lengthPrior = model.lengthPrior.copy();
+        this.candidates = model.candidates;
+        this.decoder = model.decoder;
+        this.logSpace = model.options.isLogSpaceDecoding();
+        if (this.logSpace) {
+            this.tau.precomputeLogs();
+            this.delta.precomputeLogs();
+        }
+        this.version = model.getVersion();
+        this.iterations = model.getIterations();
+        this.logLikelihood = model.getLogLikelihood();
+    }
+
+    @Override
+    public List<Translation> translate(LanguageExpression sourceExpression, int n) {
+        int[] sourceSplit = this.sourceIndex.encode(sourceExpression.getWords());
+        int m = sourceSplit.length;
+        if (this.logSpace) {
+            double[] logTokenWeights = this.tau.logColumnSums(sourceSplit);
+            if (this.delta.size() == 0) {
+                return this.decoder.decodeLog(logTokenWeights, null, null, n);
+            }
+            return this.decoder.decodeLog(logTokenWeights,
+                    IBM2.logPositionWeights(this.delta, this.candidates.getMaxLength(), m), this.logLengthWeights(m), n);
+        }
+        double[] tokenWeights = this.tau.columnProducts(sourceSplit);
+        if (this.delta.size() == 0) {
+            return this.decoder.decode(tokenWeights, null, null, n);
+        }
+        return this.decoder.decode(tokenWeights, IBM2.positionWeights(this.delta, this.candidates.getMaxLength(), m),
+                this.lengthWeights(m), n);
+    }
+
+    /**
+     * Same as IBM2.lengthWeights, over the frozen length prior.
+     */
+    protected double[] lengthWeights(int m) {
+        double[] lengthWeights = new double[this.candidates.getMaxLength() + 1];
+        for (int l = 0; l < lengthWeights.length; l++) {
+            lengthWeights[l] = this.lengthPrior.getOrDefault(LongDoubleMap.key(l, m), IBMModel.MIN_PROB);
+        }
+        return lengthWeights;
+    }
+
+    /**
+     * Same as IBM2.logLengthWeights, over the frozen length prior.
+     */
+    protected double[] logLengthWeights(int m) {
+        double[] logLengthWeights = this.lengthWeights(m);
+        for (int l = 0; l < logLengthWeights.length; l++) {
+            logLengthWeights[l] = Math.log(logLengthWeights[l]);
+        }
+        return logLengthWeights;
+    }
+
+    /**
+     * Get the version of the model's parameters when the snapshot was taken.
+     */
+    @Override
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get the number of EM iterations the model had run when the snapshot was taken.
+     */
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * Get the model's log-likelihood when the snapshot was taken (see IBMModel.getLogLikelihood).
+     */
+    public double getLogLikelihood() {
+        return this.logLikelihood;
+    }
+}
@@ -0,0 +1,97 @@
+package mt;
+
+import language.LanguageExpression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Bounded list of the k best scoring candidates offered to it, kept in a min-heap of size k so
+ * that ranking n candidates costs O(n log k) rather than a full sort. Candidates are referred to
+ * by their index (e.g. into a CandidateSet), so offering one that is not kept allocates nothing.
+ * Among equally scoring candidates, the lower index ranks higher, whatever order the candidates
+ * are offered in.
+ */
+public class NBestList {
+    protected final int k;
+    protected final PriorityQueue<Entry> heap;
+
+    /**
+     * Instantiate an empty NBestList.
+     *
+     * @param k Maximum number of candidates kept.
+     */
+    public NBestList(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Size of the n-best list must be at least 1, got " + k);
+        }
+        this.k = k;
+        // Head of the heap is the worst kept candidate: lowest score, then highest index
+        this.heap = new PriorityQueue<>(k, Comparator.<Entry>comparingDouble(e -> e.score)
+                .thenComparing(Comparator.<Entry>comparingInt(e -> e.candidate).reversed()));
+    }
+
+    /**
+     * Offer a candidate, keeping it if it ranks among the k best seen so far.
+     *
+     * @param candidate Index of the candidate to offer.
+     * @param score Score of the candidate.
+     * @return True if the candidate was kept.
+     */
+    public boolean offer(int candidate, double score) {
+        if (this.heap.size() < this.k) {
+            this.heap.add(new Entry(candidate, score));
+            return true;
+        }
+        Entry worst = this.heap.peek();
+        if (score > worst.score || (score == worst.score && candidate < worst.candidate)) {
+            this.heap.poll();
+            this.heap.add(new Entry(candidate, score));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the score a candidate has to beat to be kept.
+     *
+     * @return Score of the worst kept candidate, or negative infinity while fewer than k are kept.
+     */
+    public double threshold() {
+        return this.heap.size() < this.k ? Double.NEGATIVE_INFINITY : this.heap.peek().score;
+    }
+
+    public int size() {
+        return this.heap.size();
+    }
+
+    /**
+     * Get the kept candidates as Translations, best first.
+     *
+     * @param toExpression Function building the expression of a candidate, given its index.
+     * @return Ranked list of at most k Translations.
+     */
+    public List<Translation> toList(IntFunction<? extends LanguageExpression> toExpression) {
+        List<Entry> entries = new ArrayList<>(this.heap);
+        entries.sort(Collections.reverseOrder(this.heap.comparator()));
+        List<Translation> translations = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            translations.add(new Translation(toExpression.apply(entry.candidate), entry.score));
+        }
+        return translations;
+    }
+
+    protected static class Entry {
+        protected final int candidate;
+        protected final double score;
+
+        protected Entry(int candidate, double score) {
+            this.candidate = candidate;
+            this.score = score;
+        }
+    }
+}
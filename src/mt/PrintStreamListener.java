@@ -0,0 +1,24 @@
+package mt;
+
+import java.io.PrintStream;
+
+/**
+ * TrainingListener printing one line per EM iteration, prefixed by the model's class name.
+ */
+public class PrintStreamListener implements TrainingListener {
+    protected final PrintStream out;
+
+    /**
+     * Instantiate a PrintStreamListener.
+     *
+     * @param out Stream to print to, e.g. System.err.
+     */
+    public PrintStreamListener(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void iterationCompleted(IBMModel model, IterationStats stats) {
+        this.out.println(model.getClass().getSimpleName() + " " + stats);
+    }
+}
@@ -0,0 +1,101 @@
+package mt;
+
+import language.LanguageExpression;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Translator serving the latest published ModelSnapshot. Translations read the current snapshot
+ * through an atomic reference, without locking, so the translator stays online while the next
+ * model is trained (e.g. by retrainAsync, or by updating a model and publishing it again); a
+ * translation that started before a publish finishes on the snapshot it started with.
+ *
+ * The version (see MachineTranslator.getVersion) counts publishes, so that caches in front of the
+ * translator (e.g. CachingTranslator) drop translations of earlier snapshots.
+ */
+public class SnapshotTranslator implements MachineTranslator {
+    protected final AtomicReference<ModelSnapshot> current;
+    protected final AtomicLong publishes = new AtomicLong();
+
+    /**
+     * Instantiate a SnapshotTranslator serving the given snapshot.
+     *
+     * @param initial First snapshot to serve.
+     */
+    public SnapshotTranslator(ModelSnapshot initial) {
+        this.current = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Instantiate a SnapshotTranslator serving a snapshot of the current parameters of a model.
+     *
+     * @param model Trained model.
+     */
+    public SnapshotTranslator(IBMModel model) {
+        this(model.snapshot());
+    }
+
+    @Override
+    public List<Translation> translate(LanguageExpression sourceExpression, int n) {
+        return this.current.get().translate(sourceExpression, n);
+    }
+
+    /**
+     * Serve the given snapshot from now on.
+     *
+     * @param snapshot Snapshot to serve.
+     * @return Snapshot served until now.
+     */
+    public ModelSnapshot publish(ModelSnapshot snapshot) {
+        ModelSnapshot previous = this.current.getAndSet(snapshot);
+        this.publishes.incrementAndGet();
+        return previous;
+    }
+
+    /**
+     * Take a snapshot of a model and serve it from now on. The model must not be trained or
+     * updated concurrently (e.g. publish from the thread training it).
+     *
+     * @param model Model to publish.
+     * @return Snapshot served until now.
+     */
+    public ModelSnapshot publish(IBMModel model) {
+        return this.publish(model.snapshot());
+    }
+
+    /**
+     * Train a new model on the given executor, and publish it once trained. Translations keep
+     * being served from the current snapshot in the meantime.
+     *
+     * @param training Builds and trains the new model (e.g. () -> new IBM2(corpus, 10)).
+     * @param executor Executor to train on.
+     * @return Future of the published snapshot.
+     */
+    public CompletableFuture<ModelSnapshot> retrainAsync(Supplier<? extends IBMModel> training, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            ModelSnapshot snapshot = training.get().snapshot();
+            this.publish(snapshot);
+            return snapshot;
+        }, executor);
+    }
+
+    /**
+     * Get the snapshot currently served.
+     */
+    public ModelSnapshot current() {
+        return this.current.get();
+    }
+
+    /**
+     * Get the number of snapshots published since this translator was created.
+     */
+    @Override
+    public long getVersion() {
+        return this.publishes.get();
+    }
+}
@@ -0,0 +1,18 @@
+package mt;
+
+/**
+ * Listener notified after every EM iteration of a model, e.g. to log its progress or to feed a
+ * metrics system. Listeners are registered on the model's TrainingOptions; a model embedding
+ * another one (IBM Model 2 initializing from IBM Model 1) reports the iterations of both.
+ */
+@FunctionalInterface
+public interface TrainingListener {
+
+    /**
+     * Called on the training thread once an iteration's M - Step is done.
+     *
+     * @param model Model that completed the iteration.
+     * @param stats Metrics of the iteration.
+     */
+    void iterationCompleted(IBMModel model, IterationStats stats);
+}
@@ -0,0 +1,262 @@
+package mt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Options controlling how an IBM Model runs EM. The default options train sequentially, on the
+ * calling thread.
+ *
+ * Options may be shared between models (e.g. across the folds of an evaluation), in which case the
+ * models also share the same worker pool.
+ */
+public class TrainingOptions {
+    /* Default decay of the stepwise EM step size, in the range Liang and Klein (2009) found best */
+    public static final double DEFAULT_STEP_DECAY = 0.7;
+
+    protected int parallelism;
+    protected double tolerance;
+    protected double parameterTolerance;
+    protected double pruneThreshold;
+    protected int pruneTopK;
+    protected boolean pruneEachIteration;
+    protected double stepDecay;
+    protected boolean logSpaceDecoding;
+    protected ForkJoinPool pool;
+    /* Ids of the pool's live worker threads, for allocation accounting */
+    protected final Set<Long> workerIds;
+    protected final List<TrainingListener> listeners;
+
+    /**
+     * Instantiate the default (sequential) TrainingOptions.
+     */
+    public TrainingOptions() {
+        this.parallelism = 1;
+        this.stepDecay = DEFAULT_STEP_DECAY;
+        this.workerIds = ConcurrentHashMap.newKeySet();
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Set the number of worker threads used by the E - Step. A parallelism of 1 runs EM
+     * sequentially on the calling thread.
+     *
+     * @param parallelism Size of the fork-join pool the corpus shards are processed on.
+     * @return These options.
+     */
+    public synchronized TrainingOptions setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        if (this.pool != null && parallelism != this.parallelism) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Set the convergence tolerance on the log-likelihood: EM stops once an iteration changes the
+     * corpus log-likelihood by at most this fraction of its previous value. The model's iteration
+     * count becomes a cap. A tolerance of 0 (the default) disables the criterion.
+     *
+     * @param tolerance Relative log-likelihood change at which EM has converged.
+     * @return These options.
+     */
+    public TrainingOptions setTolerance(double tolerance) {
+        if (tolerance < 0.0) {
+            throw new IllegalArgumentException("Tolerance must be non-negative, got " + tolerance);
+        }
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    public double getTolerance() {
+        return this.tolerance;
+    }
+
+    /**
+     * Set the convergence tolerance on the parameters: EM stops once an iteration changes no tau
+     * or delta entry by more than this amount. The model's iteration count becomes a cap. A
+     * tolerance of 0 (the default) disables the criterion.
+     *
+     * @param parameterTolerance Largest absolute parameter change at which EM has converged.
+     * @return These options.
+     */
+    public TrainingOptions setParameterTolerance(double parameterTolerance) {
+        if (parameterTolerance < 0.0) {
+            throw new IllegalArgumentException("Parameter tolerance must be non-negative, got " + parameterTolerance);
+        }
+        this.parameterTolerance = parameterTolerance;
+        return this;
+    }
+
+    public double getParameterTolerance() {
+        return this.parameterTolerance;
+    }
+
+    /**
+     * Set how IBMModel.prune prunes tau: entries below the threshold are dropped, and only the
+     * topK most likely translations of each target word are kept.
+     *
+     * @param threshold Smallest probability kept (0, the default, for no threshold).
+     * @param topK Maximum number of translations kept per target word (0, the default, for no limit).
+     * @return These options.
+     */
+    public TrainingOptions setPruning(double threshold, int topK) {
+        if (threshold < 0.0 || topK < 0) {
+            throw new IllegalArgumentException("Pruning threshold and top-k must be non-negative, got "
+                    + threshold + ", " + topK);
+        }
+        this.pruneThreshold = threshold;
+        this.pruneTopK = topK;
+        return this;
+    }
+
+    public double getPruneThreshold() {
+        return this.pruneThreshold;
+    }
+
+    public int getPruneTopK() {
+        return this.pruneTopK;
+    }
+
+    /**
+     * Set whether tau is pruned after every M - Step, rather than only when IBMModel.prune is
+     * called (e.g. once training is done).
+     *
+     * @param pruneEachIteration True to prune after every M - Step.
+     * @return These options.
+     */
+    public TrainingOptions setPruneEachIteration(boolean pruneEachIteration) {
+        this.pruneEachIteration = pruneEachIteration;
+        return this;
+    }
+
+    public boolean isPruneEachIteration() {
+        return this.pruneEachIteration;
+    }
+
+    /**
+     * Set how fast the step size of stepwise EM (IBMModel.update) decays: after the model has seen
+     * k sentences, a sentence's statistics are interpolated in with weight (k + 1) ^ -stepDecay.
+     * A decay of 1 weighs every sentence equally, as batch EM would; smaller decays favor the most
+     * recent updates.
+     *
+     * @param stepDecay Step size decay, in (0.5, 1] (0.7 by default).
+     * @return These options.
+     */
+    public TrainingOptions setStepDecay(double stepDecay) {
+        if (stepDecay <= 0.5 || stepDecay > 1.0) {
+            throw new IllegalArgumentException("Step decay must be in (0.5, 1], got " + stepDecay);
+        }
+        this.stepDecay = stepDecay;
+        return this;
+    }
+
+    public double getStepDecay() {
+        return this.stepDecay;
+    }
+
+    /**
+     * Set whether trained models score translations in log space (see Decoder.decodeLog), summing
+     * precomputed log probabilities rather than multiplying probabilities. Long source sentences
+     * then no longer underflow to equal scores; translations are scored by log-likelihood.
+     *
+     * @param logSpaceDecoding True to decode in log space.
+     * @return These options.
+     */
+    public TrainingOptions setLogSpaceDecoding(boolean logSpaceDecoding) {
+        this.logSpaceDecoding = logSpaceDecoding;
+        return this;
+    }
+
+    public boolean isLogSpaceDecoding() {
+        return this.logSpaceDecoding;
+    }
+
+    /**
+     * Get the pool the E - Step is run on, creating it on first use.
+     *
+     * @return Fork-join pool of getParallelism() workers, or null when training sequentially.
+     */
+    public synchronized ForkJoinPool getPool() {
+        if (this.parallelism <= 1) {
+            return null;
+        }
+        if (this.pool == null) {
+            this.pool = new ForkJoinPool(this.parallelism, pool -> new Worker(pool, this.workerIds), null, false);
+        }
+        return this.pool;
+    }
+
+    /**
+     * Get the ids of the E - Step pool's live worker threads.
+     *
+     * @return Thread ids, empty when training sequentially or before the pool has started workers.
+     */
+    public long[] getWorkerThreadIds() {
+        return this.workerIds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Register a listener to be notified after every EM iteration of the models trained with
+     * these options.
+     *
+     * @param listener Listener to add.
+     * @return These options.
+     */
+    public TrainingOptions addListener(TrainingListener listener) {
+        this.listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Unregister a listener.
+     *
+     * @param listener Listener to remove.
+     * @return These options.
+     */
+    public TrainingOptions removeListener(TrainingListener listener) {
+        this.listeners.remove(listener);
+        return this;
+    }
+
+    public List<TrainingListener> getListeners() {
+        return Collections.unmodifiableList(this.listeners);
+    }
+
+    /**
+     * Worker thread of the E - Step pool, registering its id while it lives.
+     */
+    protected static class Worker extends ForkJoinWorkerThread {
+        protected final Set<Long> workerIds;
+
+        protected Worker(ForkJoinPool pool, Set<Long> workerIds) {
+            super(pool);
+            this.workerIds = workerIds;
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            this.workerIds.add(this.getId());
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            this.workerIds.remove(this.getId());
+            super.onTermination(exception);
+        }
+    }
+}
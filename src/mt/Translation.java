@@ -0,0 +1,35 @@
+package mt;
+
+import language.LanguageExpression;
+
+/**
+ * A candidate translation, along with the score (likelihood) its translator assigned it.
+ */
+public class Translation {
+    protected final LanguageExpression expression;
+    protected final double score;
+
+    /**
+     * Instantiate a Translation.
+     *
+     * @param expression Translated expression, in the translator's target language.
+     * @param score Score of the expression given the source expression.
+     */
+    public Translation(LanguageExpression expression, double score) {
+        this.expression = expression;
+        this.score = score;
+    }
+
+    public LanguageExpression getExpression() {
+        return this.expression;
+    }
+
+    public double getScore() {
+        return this.score;
+    }
+
+    @Override
+    public String toString() {
+        return this.expression.toString() + "=" + this.score;
+    }
+}
@@ -4,18 +4,25 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Simple Alignment class, represented of a list of Integer-Integer Pairs.
+ * Simple Alignment class, represented as (source position, target position) pairs of an
+ * AlignedSent's words. Pairs are packed into a single primitive array, rather than boxed.
+ *
+ * A source word aligned to nothing (i.e. to the NULL token) has target position NULL.
  *
  * Created by Sidd Karamcheti on 3/7/16.
  */
 public class Alignment {
-    List<Pair<Integer, Integer>> alignment;
+    /* Target position of source words aligned to the NULL token */
+    public static final int NULL = -1;
+
+    /* Pair k is (pairs[2 * k], pairs[2 * k + 1]) */
+    protected volatile int[] pairs;
 
     /**
      * Default Alignment Constructor.
      */
     public Alignment() {
-        this.alignment = new ArrayList<>();
+        this.pairs = new int[0];
     }
 
     /**
@@ -24,9 +31,83 @@ public class Alignment {
      * @param alignment List of Integer-Integer Pairs.
      */
     public Alignment(List<Pair<Integer, Integer>> alignment) {
-        this.alignment = alignment;
+        int[] pairs = new int[2 * alignment.size()];
+        for (int k = 0; k < alignment.size(); k++) {
+            pairs[2 * k] = alignment.get(k).getLeft();
+            pairs[2 * k + 1] = alignment.get(k).getRight();
+        }
+        this.pairs = pairs;
+    }
+
+    /**
+     * Constructs Alignment from packed pairs.
+     *
+     * @param pairs Source and target positions, alternating.
+     */
+    public Alignment(int[] pairs) {
+        this.set(pairs);
+    }
+
+    /**
+     * Replace the pairs of the alignment.
+     *
+     * @param pairs Source and target positions, alternating; the array is not copied.
+     */
+    public void set(int[] pairs) {
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected an even number of positions, got " + pairs.length);
+        }
+        this.pairs = pairs;
+    }
+
+    /**
+     * Get the number of pairs in the alignment.
+     */
+    public int size() {
+        return this.pairs.length / 2;
     }
 
+    /**
+     * Get the source position of the k-th pair.
+     */
+    public int getSource(int k) {
+        return this.pairs[2 * k];
+    }
 
+    /**
+     * Get the target position of the k-th pair, or NULL.
+     */
+    public int getTarget(int k) {
+        return this.pairs[2 * k + 1];
+    }
 
+    /**
+     * Get the pairs of the alignment, boxed.
+     *
+     * @return List of (source position, target position) pairs.
+     */
+    public List<Pair<Integer, Integer>> getPairs() {
+        int[] pairs = this.pairs;
+        List<Pair<Integer, Integer>> boxed = new ArrayList<>(pairs.length / 2);
+        for (int k = 0; k < pairs.length; k += 2) {
+            boxed.add(new Pair<>(pairs[k], pairs[k + 1]));
+        }
+        return boxed;
+    }
+
+    /**
+     * Format the alignment as space separated source-target pairs, e.g. "0-1 1-NULL 2-0".
+     */
+    @Override
+    public String toString() {
+        int[] pairs = this.pairs;
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < pairs.length; k += 2) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(pairs[k]).append('-').append(pairs[k + 1] == NULL ? "NULL" : Integer.toString(pairs[k + 1]));
+        }
+        return sb.toString();
+    }
 }
@@ -7,27 +7,85 @@ package structures;
  * Created by Sidd Karamcheti on 3/8/16.
  */
 public class AlignmentCounts extends Counts {
-    public DefaultDict<Integer, DefaultDict<Integer,
-                                    DefaultDict<Integer, DefaultDict<Integer, Double>>>> nIJLM;
-    public DefaultDict<Integer, DefaultDict<Integer, DefaultDict<Integer, Double>>> nIO;
+    /* Count of source position i aligned with target position j, indexed like the delta table */
+    public final double[] nIJLM;
+    /* Count of target position j aligned with anything, indexed by the delta table's columns */
+    public final double[] nIO;
+    protected final AlignmentTable layout;
 
     /**
-     * AlignmentCounts default constructor.
+     * AlignmentCounts constructor.
+     *
+     * @param targets Number of target words (rows of tau).
+     * @param sources Number of source words (columns of tau).
+     * @param layout Delta table whose (l, m) combinations the counts are kept for.
      */
-    public AlignmentCounts() {
-        super();
-        this.nIJLM = new DefaultDict<>(a -> new DefaultDict<>(b -> new DefaultDict<>(c -> new DefaultDict<>(0.0))));
-        this.nIO = new DefaultDict<>(a -> new DefaultDict<>(b -> new DefaultDict<>(0.0)));
+    public AlignmentCounts(int targets, int sources, AlignmentTable layout) {
+        super(targets, sources);
+        this.layout = layout;
+        this.nIJLM = new double[layout.size()];
+        this.nIO = new double[layout.columnSize()];
     }
 
-    public void updateTau(double count, String s, String t) {
-        this.nTS.get(t).put(s, this.nTS.get(t).get(s) + count);
-        this.nTO.put(s, this.nTO.get(s) + count);
+    public void updateDelta(double count, int i, int j, int l, int m) {
+        this.nIJLM[this.layout.index(i, j, l, m)] += count;
+        this.nIO[this.layout.columnIndex(j, l, m)] += count;
     }
 
-    public void updateDelta(double count, int i, int j, int l, int m) {
-        this.nIJLM.get(i).get(j).get(l).put(m, this.nIJLM.get(i).get(j).get(l).get(m) + count);
-        this.nIO.get(j).get(l).put(m, this.nIO.get(j).get(l).get(m) + count);
+    @Override
+    public void merge(Counts other) {
+        super.merge(other);
+        AlignmentCounts counts = (AlignmentCounts) other;
+        for (int k = 0; k < this.nIJLM.length; k++) {
+            this.nIJLM[k] += counts.nIJLM[k];
+        }
+        for (int k = 0; k < this.nIO.length; k++) {
+            this.nIO[k] += counts.nIO[k];
+        }
+    }
+
+    /**
+     * Also adds the alignment counts, to a structure whose layout stores every (l, m) combination
+     * of this one's (e.g. sized to a grown AlignmentTable).
+     */
+    @Override
+    public void addTo(Counts target) {
+        super.addTo(target);
+        AlignmentCounts counts = (AlignmentCounts) target;
+        for (int[] lm : this.layout.getLengths()) {
+            int l = lm[0];
+            int m = lm[1];
+            for (int j = 1; j < m + 1; j++) {
+                for (int i = 0; i < l + 1; i++) {
+                    counts.nIJLM[counts.layout.index(i, j, l, m)] += this.getIJLM(i, j, l, m);
+                }
+                counts.nIO[counts.layout.columnIndex(j, l, m)] += this.getIO(j, l, m);
+            }
+        }
+    }
+
+    @Override
+    public void scale(double factor) {
+        super.scale(factor);
+        for (int k = 0; k < this.nIJLM.length; k++) {
+            this.nIJLM[k] *= factor;
+        }
+        for (int k = 0; k < this.nIO.length; k++) {
+            this.nIO[k] *= factor;
+        }
+    }
+
+    @Override
+    public long nonzeroDelta() {
+        return countNonzero(this.nIJLM);
+    }
+
+    public double getIJLM(int i, int j, int l, int m) {
+        return this.nIJLM[this.layout.index(i, j, l, m)];
+    }
+
+    public double getIO(int j, int l, int m) {
+        return this.nIO[this.layout.columnIndex(j, l, m)];
     }
 
 }
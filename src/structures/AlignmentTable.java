@@ -0,0 +1,260 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact alignment (Delta) probability tensor, backed by a single primitive array. Only the
+ * (l, m) sentence length combinations handed to the constructor are stored; each one owns a
+ * contiguous block of (l + 1) * m entries, one for every source position i in { 0 (NULL), ... l }
+ * and target position j in { 1, ... m }.
+ *
+ * Lookups outside of the stored combinations return the default value of their source position i
+ * (see setPositionDefault), or else the table's default value.
+ *
+ * For log-space decoding, the table also keeps the logarithm of every entry (see precomputeLogs),
+ * which is dropped by any later update.
+ */
+public class AlignmentTable {
+    protected final double defaultValue;
+    protected final double logDefaultValue;
+    /* Default value of each source position i, and its logarithm, for lookups outside of the stored combinations */
+    protected double[] positionDefaults = new double[0];
+    protected double[] logPositionDefaults = new double[0];
+    protected final List<int[]> lengths;
+    /* Offset of the (l, m) block, indexed offsets[l][m], -1 for combinations not in the table */
+    protected final int[][] offsets;
+    /* Offset of the (l, m) block in the per (j, l, m) column space, indexed like offsets */
+    protected final int[][] columnOffsets;
+    protected final int columnSize;
+    protected final double[] values;
+    /* Logarithm of every entry, or null unless computed since the last update */
+    protected volatile double[] logValues;
+
+    /**
+     * Instantiate an AlignmentTable over the given sentence length combinations.
+     *
+     * @param lengths Pairs of (l, m) sentence lengths that can be looked up.
+     * @param defaultValue Value of every entry outside of the given length combinations.
+     */
+    public AlignmentTable(Collection<Pair<Integer, Integer>> lengths, double defaultValue) {
+        this.defaultValue = defaultValue;
+        this.logDefaultValue = Math.log(defaultValue);
+        this.lengths = new ArrayList<>();
+
+        int maxL = 0;
+        int maxM = 0;
+        for (Pair<Integer, Integer> lm : lengths) {
+            maxL = Math.max(maxL, lm.getLeft());
+            maxM = Math.max(maxM, lm.getRight());
+        }
+        this.offsets = new int[maxL + 1][maxM + 1];
+        this.columnOffsets = new int[maxL + 1][maxM + 1];
+        for (int[] row : this.offsets) {
+            Arrays.fill(row, -1);
+        }
+
+        int size = 0;
+        int columnSize = 0;
+        for (Pair<Integer, Integer> lm : lengths) {
+            int l = lm.getLeft();
+            int m = lm.getRight();
+            if (this.offsets[l][m] != -1) {
+                continue;
+            }
+            this.lengths.add(new int[] {l, m});
+            this.offsets[l][m] = size;
+            this.columnOffsets[l][m] = columnSize;
+            size += (l + 1) * m;
+            columnSize += m;
+        }
+        this.columnSize = columnSize;
+        this.values = new double[size];
+        Arrays.fill(this.values, defaultValue);
+    }
+
+    /**
+     * Build a copy of this table that also stores the given sentence length combinations, keeping
+     * the value of every existing entry. Entries of the new combinations start at the default value.
+     *
+     * @param added Pairs of (l, m) sentence lengths to add; combinations already stored are skipped.
+     * @return Grown table.
+     */
+    public AlignmentTable withLengths(Collection<Pair<Integer, Integer>> added) {
+        List<Pair<Integer, Integer>> lengths = new ArrayList<>();
+        for (int[] lm : this.lengths) {
+            lengths.add(new Pair<>(lm[0], lm[1]));
+        }
+        lengths.addAll(added);
+        AlignmentTable grown = new AlignmentTable(lengths, this.defaultValue);
+        grown.positionDefaults = this.positionDefaults.clone();
+        grown.logPositionDefaults = this.logPositionDefaults.clone();
+        for (int[] lm : this.lengths) {
+            int offset = this.offsets[lm[0]][lm[1]];
+            int size = (lm[0] + 1) * lm[1];
+            System.arraycopy(this.values, offset, grown.values, grown.offsets[lm[0]][lm[1]], size);
+        }
+        return grown;
+    }
+
+    /**
+     * Build a copy of this table.
+     */
+    public AlignmentTable copy() {
+        return this.withLengths(Collections.emptyList());
+    }
+
+    /**
+     * Check whether the (l, m) sentence length combination is stored in the table.
+     */
+    public boolean contains(int l, int m) {
+        return this.index(0, 1, l, m) != -1;
+    }
+
+    /**
+     * Get the flat index of entry (i, j, l, m).
+     *
+     * @return Index into the value space, or -1 if the entry is not stored.
+     */
+    public int index(int i, int j, int l, int m) {
+        if (l < 0 || l >= this.offsets.length || m < 0 || m >= this.offsets[l].length
+                || i < 0 || i > l || j < 1 || j > m) {
+            return -1;
+        }
+        int offset = this.offsets[l][m];
+        return offset == -1 ? -1 : offset + i * m + (j - 1);
+    }
+
+    /**
+     * Get the flat index of column (j, l, m), shared by all source positions i.
+     *
+     * @return Index into the column space, or -1 if the column is not stored.
+     */
+    public int columnIndex(int j, int l, int m) {
+        if (this.index(0, j, l, m) == -1) {
+            return -1;
+        }
+        return this.columnOffsets[l][m] + (j - 1);
+    }
+
+    /**
+     * Get the probability of source position i given target position j and lengths l, m.
+     *
+     * @return delta(i | j, l, m), or the default value of position i for entries that are not stored.
+     */
+    public double get(int i, int j, int l, int m) {
+        int index = this.index(i, j, l, m);
+        if (index == -1) {
+            return i >= 0 && i < this.positionDefaults.length ? this.positionDefaults[i] : this.defaultValue;
+        }
+        return this.values[index];
+    }
+
+    /**
+     * Set the probability of source position i given target position j and lengths l, m.
+     */
+    public void set(int i, int j, int l, int m, double value) {
+        int index = this.index(i, j, l, m);
+        if (index == -1) {
+            throw new IllegalArgumentException("No alignment entry for lengths " + l + ", " + m);
+        }
+        this.values[index] = value;
+        this.logValues = null;
+    }
+
+    /**
+     * Set every entry of the (l, m) block to the given value.
+     */
+    public void fill(int l, int m, double value) {
+        int offset = this.index(0, 1, l, m);
+        if (offset == -1) {
+            throw new IllegalArgumentException("No alignment entry for lengths " + l + ", " + m);
+        }
+        Arrays.fill(this.values, offset, offset + (l + 1) * m, value);
+        this.logValues = null;
+    }
+
+    /**
+     * Set the value lookups of source position i return outside of the stored combinations, in
+     * place of the table's default value.
+     */
+    public void setPositionDefault(int i, double value) {
+        if (i >= this.positionDefaults.length) {
+            int length = this.positionDefaults.length;
+            this.positionDefaults = Arrays.copyOf(this.positionDefaults, i + 1);
+            this.logPositionDefaults = Arrays.copyOf(this.logPositionDefaults, i + 1);
+            Arrays.fill(this.positionDefaults, length, i + 1, this.defaultValue);
+            Arrays.fill(this.logPositionDefaults, length, i + 1, this.logDefaultValue);
+        }
+        this.positionDefaults[i] = value;
+        this.logPositionDefaults[i] = Math.log(value);
+    }
+
+    /**
+     * Get the default value of each source position set with setPositionDefault.
+     *
+     * @return Defaults, indexed by source position.
+     */
+    public double[] getPositionDefaults() {
+        return this.positionDefaults.clone();
+    }
+
+    public double getDefaultValue() {
+        return this.defaultValue;
+    }
+
+    /**
+     * Get the logarithm of delta(i | j, l, m), from the precomputed logarithms.
+     *
+     * @return log delta(i | j, l, m), or the logarithm of the default value of position i for
+     *         entries that are not stored.
+     */
+    public double logGet(int i, int j, int l, int m) {
+        int index = this.index(i, j, l, m);
+        if (index == -1) {
+            return i >= 0 && i < this.logPositionDefaults.length ? this.logPositionDefaults[i] : this.logDefaultValue;
+        }
+        return this.precomputeLogs()[index];
+    }
+
+    /**
+     * Compute the logarithm of every entry, unless already computed since the last update.
+     *
+     * @return Logarithms, laid out like the values.
+     */
+    public double[] precomputeLogs() {
+        double[] logValues = this.logValues;
+        if (logValues == null) {
+            logValues = new double[this.values.length];
+            for (int k = 0; k < logValues.length; k++) {
+                logValues[k] = Math.log(this.values[k]);
+            }
+            this.logValues = logValues;
+        }
+        return logValues;
+    }
+
+    /**
+     * Get the (l, m) sentence length combinations stored in the table, as {l, m} arrays.
+     */
+    public List<int[]> getLengths() {
+        return Collections.unmodifiableList(this.lengths);
+    }
+
+    /**
+     * Get the number of (i, j, l, m) entries stored in the table.
+     */
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * Get the number of (j, l, m) columns stored in the table.
+     */
+    public int columnSize() {
+        return this.columnSize;
+    }
+}
@@ -0,0 +1,159 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of candidate target expressions considered when decoding, tokenized once up front: each
+ * candidate is kept both as its list of words and as an array of word ids, so that decoding does
+ * not split or hash any String.
+ *
+ * The set also keeps an inverted index from each word id to the candidates containing it, used to
+ * visit candidates in order of their best scoring word.
+ */
+public class CandidateSet {
+    protected final List<List<String>> words;
+    protected final int[][] ids;
+    /* Candidates containing each word, indexed postings[word id], in increasing candidate order */
+    protected final int[][] postings;
+    protected final int maxLength;
+
+    /**
+     * Tokenize a collection of space separated expressions, in the collection's iteration order.
+     *
+     * @param expressions Candidate expressions.
+     * @param vocabulary Vocabulary to encode the candidates' words with, containing all of them.
+     */
+    public CandidateSet(Collection<String> expressions, Vocabulary vocabulary) {
+        this(split(expressions), vocabulary);
+    }
+
+    private CandidateSet(List<List<String>> words, Vocabulary vocabulary) {
+        this(words, encode(words, vocabulary), vocabulary.size());
+    }
+
+    /**
+     * Instantiate a CandidateSet from already tokenized candidates.
+     *
+     * @param words Words of each candidate.
+     * @param ids Word ids of each candidate, in [0, vocabularySize).
+     * @param vocabularySize Number of distinct word ids.
+     */
+    public CandidateSet(List<List<String>> words, int[][] ids, int vocabularySize) {
+        if (words.size() != ids.length) {
+            throw new IllegalArgumentException("Got " + words.size() + " candidates but " + ids.length + " id arrays");
+        }
+        this.words = words;
+        this.ids = ids;
+
+        int maxLength = 0;
+        int[] postingSizes = new int[vocabularySize];
+        for (int candidate = 0; candidate < this.ids.length; candidate++) {
+            maxLength = Math.max(maxLength, this.ids[candidate].length);
+            for (int word : distinct(this.ids[candidate])) {
+                postingSizes[word]++;
+            }
+        }
+        this.maxLength = maxLength;
+
+        this.postings = new int[vocabularySize][];
+        for (int word = 0; word < this.postings.length; word++) {
+            this.postings[word] = new int[postingSizes[word]];
+            postingSizes[word] = 0;
+        }
+        for (int candidate = 0; candidate < this.ids.length; candidate++) {
+            for (int word : distinct(this.ids[candidate])) {
+                this.postings[word][postingSizes[word]++] = candidate;
+            }
+        }
+    }
+
+    /**
+     * Split space separated expressions into unmodifiable lists of words.
+     */
+    protected static List<List<String>> split(Collection<String> expressions) {
+        List<List<String>> words = new ArrayList<>(expressions.size());
+        for (String expression : expressions) {
+            words.add(Collections.unmodifiableList(Arrays.asList(expression.split(" "))));
+        }
+        return words;
+    }
+
+    /**
+     * Encode tokenized expressions with a vocabulary that must contain all of their words.
+     */
+    protected static int[][] encode(List<List<String>> words, Vocabulary vocabulary) {
+        int[][] ids = new int[words.size()][];
+        for (int c = 0; c < ids.length; c++) {
+            ids[c] = vocabulary.encode(words.get(c));
+            for (int id : ids[c]) {
+                if (id == Vocabulary.UNKNOWN) {
+                    throw new IllegalArgumentException("Candidate has words outside of the vocabulary: "
+                            + String.join(" ", words.get(c)));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the distinct values of an array of word ids.
+     */
+    protected static int[] distinct(int[] ids) {
+        return Arrays.stream(ids).distinct().toArray();
+    }
+
+    /**
+     * Get the words of a candidate.
+     *
+     * @param candidate Index of the candidate.
+     * @return Unmodifiable list of the candidate's words.
+     */
+    public List<String> getWords(int candidate) {
+        return this.words.get(candidate);
+    }
+
+    /**
+     * Get the word ids of a candidate. The returned array must not be modified.
+     *
+     * @param candidate Index of the candidate.
+     * @return Ids of the candidate's words.
+     */
+    public int[] getIds(int candidate) {
+        return this.ids[candidate];
+    }
+
+    /**
+     * Get the candidates containing a word. The returned array must not be modified.
+     *
+     * @param word Word id.
+     * @return Indices of the candidates containing the word, in increasing order.
+     */
+    public int[] getPostings(int word) {
+        if (word < 0 || word >= this.postings.length) {
+            return new int[0];
+        }
+        return this.postings[word];
+    }
+
+    /**
+     * Get the number of distinct word ids the index covers.
+     */
+    public int getVocabularySize() {
+        return this.postings.length;
+    }
+
+    /**
+     * Get the length of the longest candidate.
+     */
+    public int getMaxLength() {
+        return this.maxLength;
+    }
+
+    public int size() {
+        return this.ids.length;
+    }
+}
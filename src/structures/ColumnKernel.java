@@ -0,0 +1,36 @@
+package structures;
+
+/**
+ * Element-wise arithmetic over a contiguous run of table entries, e.g. a row of a TauTable. Each
+ * operation updates every element of the target array in place, element by element, so that any
+ * implementation returns exactly the same values as the scalar one (see ColumnKernels).
+ */
+public interface ColumnKernel {
+    /**
+     * Multiply every target element by the matching value: target[s] *= values[from + s].
+     *
+     * @param target Elements to update.
+     * @param values Array holding target.length values from index from on.
+     * @param from Index of the value matching target[0].
+     */
+    void multiply(double[] target, double[] values, int from);
+
+    /**
+     * Multiply every target element by the same factor.
+     */
+    void scale(double[] target, double factor);
+
+    /**
+     * Add the matching value to every target element: target[s] += values[from + s].
+     *
+     * @param target Elements to update.
+     * @param values Array holding target.length values from index from on.
+     * @param from Index of the value matching target[0].
+     */
+    void add(double[] target, double[] values, int from);
+
+    /**
+     * Add the same term to every target element.
+     */
+    void shift(double[] target, double term);
+}
@@ -0,0 +1,88 @@
+package structures;
+
+/**
+ * Chooses the ColumnKernel tables compute with. The SIMD kernel (structures.VectorColumnKernel,
+ * in the vector module) evaluates several columns per instruction through the incubating Vector
+ * API; it is used whenever its class is on the class path and the jdk.incubator.vector module is
+ * resolved (i.e. the JVM runs with --add-modules jdk.incubator.vector). Otherwise, or when the
+ * system property structures.kernel is set to "scalar", tables use the scalar kernel.
+ */
+public final class ColumnKernels {
+    protected static final String VECTOR_KERNEL = "structures.VectorColumnKernel";
+
+    protected static final ColumnKernel SCALAR = new ScalarColumnKernel();
+    protected static final ColumnKernel DEFAULT = load();
+
+    private ColumnKernels() {
+    }
+
+    /**
+     * Get the kernel tables compute with: the SIMD kernel when available, the scalar one otherwise.
+     */
+    public static ColumnKernel get() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the scalar kernel, available on every JVM.
+     */
+    public static ColumnKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Load the SIMD kernel reflectively, so that this module never links against the Vector API.
+     *
+     * @return SIMD kernel, or the scalar kernel if it cannot be loaded.
+     */
+    protected static ColumnKernel load() {
+        if ("scalar".equals(System.getProperty("structures.kernel"))) {
+            return SCALAR;
+        }
+        try {
+            return (ColumnKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            // Not on the class path, or jdk.incubator.vector not resolved
+            return SCALAR;
+        }
+    }
+
+    /**
+     * Plain loops, one element at a time.
+     */
+    protected static class ScalarColumnKernel implements ColumnKernel {
+        @Override
+        public void multiply(double[] target, double[] values, int from) {
+            for (int s = 0; s < target.length; s++) {
+                target[s] *= values[from + s];
+            }
+        }
+
+        @Override
+        public void scale(double[] target, double factor) {
+            for (int s = 0; s < target.length; s++) {
+                target[s] *= factor;
+            }
+        }
+
+        @Override
+        public void add(double[] target, double[] values, int from) {
+            for (int s = 0; s < target.length; s++) {
+                target[s] += values[from + s];
+            }
+        }
+
+        @Override
+        public void shift(double[] target, double term) {
+            for (int s = 0; s < target.length; s++) {
+                target[s] += term;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package structures;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts a ParallelCorpus keeps up to date as sentences are inserted and removed, so that models
+ * and estimates read them rather than rescanning the corpus:
+ *
+ *      - (l, m) length histogram: sentences of target length l and source length m, and the
+ *        number of sentences of each source and each target length
+ *      - source and target word frequencies
+ *      - distinct target expressions (space separated target words), with their frequencies
+ *
+ * Adding or removing a sentence costs time proportional to its length, whatever the size of the
+ * corpus. Entries whose count drops to zero are removed, so that the key sets of the maps are
+ * exactly the lengths, words and expressions seen, and are handed out as unmodifiable views.
+ */
+public class CorpusStatistics {
+    /* Sentences by LongDoubleMap.key(l, m), l the target length and m the source length */
+    protected final Map<Long, Integer> lengths;
+    protected final Map<Integer, Integer> sourceLengths;
+    protected final Map<Integer, Integer> targetLengths;
+    protected final Map<String, Integer> sourceWords;
+    protected final Map<String, Integer> targetWords;
+    protected final Map<String, Integer> targetExpressions;
+    protected int sentences;
+
+    /* Unmodifiable views of the distinct words and expressions, kept up to date by the maps */
+    protected final Set<String> sourceWordSet;
+    protected final Set<String> targetWordSet;
+    protected final Set<String> targetExpressionSet;
+
+    /**
+     * Instantiate empty CorpusStatistics.
+     */
+    public CorpusStatistics() {
+        this(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), 0);
+    }
+
+    protected CorpusStatistics(CorpusStatistics other) {
+        this(new HashMap<>(other.lengths), new HashMap<>(other.sourceLengths), new HashMap<>(other.targetLengths),
+                new HashMap<>(other.sourceWords), new HashMap<>(other.targetWords),
+                new HashMap<>(other.targetExpressions), other.sentences);
+    }
+
+    protected CorpusStatistics(Map<Long, Integer> lengths, Map<Integer, Integer> sourceLengths,
+                               Map<Integer, Integer> targetLengths, Map<String, Integer> sourceWords,
+                               Map<String, Integer> targetWords, Map<String, Integer> targetExpressions,
+                               int sentences) {
+        this.lengths = lengths;
+        this.sourceLengths = sourceLengths;
+        this.targetLengths = targetLengths;
+        this.sourceWords = sourceWords;
+        this.targetWords = targetWords;
+        this.targetExpressions = targetExpressions;
+        this.sentences = sentences;
+        this.sourceWordSet = Collections.unmodifiableSet(sourceWords.keySet());
+        this.targetWordSet = Collections.unmodifiableSet(targetWords.keySet());
+        this.targetExpressionSet = Collections.unmodifiableSet(targetExpressions.keySet());
+    }
+
+    /**
+     * Build a copy of these statistics, which can be updated independently of them.
+     */
+    public CorpusStatistics copy() {
+        return new CorpusStatistics(this);
+    }
+
+    /**
+     * Count a sentence in.
+     *
+     * @param sent Sentence added to the corpus.
+     */
+    public void add(AlignedSent sent) {
+        this.update(sent, 1);
+    }
+
+    /**
+     * Count a sentence out.
+     *
+     * @param sent Sentence removed from the corpus, previously added.
+     */
+    public void remove(AlignedSent sent) {
+        this.update(sent, -1);
+    }
+
+    protected void update(AlignedSent sent, int increment) {
+        List<String> source = sent.getSourceWords();
+        List<String> target = sent.getTargetWords();
+        int l = target.size();
+        int m = source.size();
+        addTo(this.lengths, LongDoubleMap.key(l, m), increment);
+        addTo(this.sourceLengths, m, increment);
+        addTo(this.targetLengths, l, increment);
+        for (String word : source) {
+            addTo(this.sourceWords, word, increment);
+        }
+        for (String word : target) {
+            addTo(this.targetWords, word, increment);
+        }
+        addTo(this.targetExpressions, String.join(" ", target), increment);
+        this.sentences += increment;
+    }
+
+    /**
+     * Add an increment to the count of a key, removing the key once its count drops to zero.
+     */
+    protected static <K> void addTo(Map<K, Integer> counts, K key, int increment) {
+        counts.merge(key, increment, (count, added) -> count + added == 0 ? null : count + added);
+    }
+
+    /**
+     * Get the number of sentences counted.
+     */
+    public int getSentences() {
+        return this.sentences;
+    }
+
+    /**
+     * Get the number of sentences of target length l and source length m.
+     */
+    public int getLengthCount(int l, int m) {
+        return this.lengths.getOrDefault(LongDoubleMap.key(l, m), 0);
+    }
+
+    /**
+     * Get the number of sentences of source length m.
+     */
+    public int getSourceLengthCount(int m) {
+        return this.sourceLengths.getOrDefault(m, 0);
+    }
+
+    /**
+     * Get the number of sentences of target length l.
+     */
+    public int getTargetLengthCount(int l) {
+        return this.targetLengths.getOrDefault(l, 0);
+    }
+
+    /**
+     * Get the (l, m) length combinations of at least one sentence.
+     *
+     * @return Combinations as LongDoubleMap.key(l, m), in no particular order.
+     */
+    public long[] getLengths() {
+        long[] seen = new long[this.lengths.size()];
+        int k = 0;
+        for (long lm : this.lengths.keySet()) {
+            seen[k++] = lm;
+        }
+        return seen;
+    }
+
+    /**
+     * Get the number of occurrences of a word in the source sentences.
+     */
+    public int getSourceFrequency(String word) {
+        return this.sourceWords.getOrDefault(word, 0);
+    }
+
+    /**
+     * Get the number of occurrences of a word in the target sentences.
+     */
+    public int getTargetFrequency(String word) {
+        return this.targetWords.getOrDefault(word, 0);
+    }
+
+    /**
+     * Get the number of target sentences with the given (space separated) expression.
+     */
+    public int getTargetExpressionFrequency(String expression) {
+        return this.targetExpressions.getOrDefault(expression, 0);
+    }
+
+    /**
+     * Get the distinct words of the source sentences, as an unmodifiable view that follows updates.
+     */
+    public Set<String> getSourceWords() {
+        return this.sourceWordSet;
+    }
+
+    /**
+     * Get the distinct words of the target sentences, as an unmodifiable view that follows updates.
+     */
+    public Set<String> getTargetWords() {
+        return this.targetWordSet;
+    }
+
+    /**
+     * Get the distinct target expressions, as space separated words, in an unmodifiable view that
+     * follows updates.
+     */
+    public Set<String> getTargetExpressions() {
+        return this.targetExpressionSet;
+    }
+}
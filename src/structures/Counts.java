@@ -7,14 +7,108 @@ package structures;
  * Created by Sidd Karamcheti on 3/7/16.
  */
 public class Counts {
-    /* Count of Target word t aligned with Source word s indexed nTS.get(t).get(s)*/
-    public final DefaultDict<String, DefaultDict<String, Double>> nTS;
-    /* Count of Target word t aligned with anything - indexed nTO.get(s) */
-    public final DefaultDict<String, Double> nTO;
-
-    public Counts() {
-        this.nTS = new DefaultDict<>(o -> new DefaultDict<>(0.0));
-        this.nTO = new DefaultDict<>(0.0);
+    /* Count of Target word t aligned with Source word s indexed nTS[t * columns + s] */
+    public final double[] nTS;
+    /* Count of Source word s aligned with anything - indexed nTO[s] */
+    public final double[] nTO;
+    /* Log-likelihood of the sentences the counts were collected over */
+    public double logLikelihood;
+    protected final int columns;
+
+    /**
+     * Counts constructor, sized to the vocabularies of a TauTable.
+     *
+     * @param targets Number of target words (rows of tau).
+     * @param sources Number of source words (columns of tau).
+     */
+    public Counts(int targets, int sources) {
+        this.columns = sources;
+        this.nTS = new double[targets * sources];
+        this.nTO = new double[sources];
+    }
+
+    public double getTS(int t, int s) {
+        return this.nTS[t * this.columns + s];
+    }
+
+    public void updateTau(double count, int s, int t) {
+        this.nTS[t * this.columns + s] += count;
+        this.nTO[s] += count;
+    }
+
+    /**
+     * Add the counts collected by another Counts structure (e.g. over another corpus shard) to
+     * these counts.
+     *
+     * @param other Counts over the same vocabularies.
+     */
+    public void merge(Counts other) {
+        for (int k = 0; k < this.nTS.length; k++) {
+            this.nTS[k] += other.nTS[k];
+        }
+        for (int s = 0; s < this.nTO.length; s++) {
+            this.nTO[s] += other.nTO[s];
+        }
+        this.logLikelihood += other.logLikelihood;
+    }
+
+    /**
+     * Add these counts to a Counts structure over the same or larger vocabularies (e.g. sized to a
+     * grown TauTable), where words keep their ids.
+     *
+     * @param target Counts to add to.
+     */
+    public void addTo(Counts target) {
+        int rows = this.nTS.length / Math.max(this.columns, 1);
+        for (int t = 0; t < rows; t++) {
+            for (int s = 0; s < this.columns; s++) {
+                target.nTS[t * target.columns + s] += this.nTS[t * this.columns + s];
+            }
+        }
+        for (int s = 0; s < this.nTO.length; s++) {
+            target.nTO[s] += this.nTO[s];
+        }
+        target.logLikelihood += this.logLikelihood;
+    }
+
+    /**
+     * Multiply every count (and the log-likelihood) by the given factor.
+     *
+     * @param factor Factor to scale by.
+     */
+    public void scale(double factor) {
+        for (int k = 0; k < this.nTS.length; k++) {
+            this.nTS[k] *= factor;
+        }
+        for (int s = 0; s < this.nTO.length; s++) {
+            this.nTO[s] *= factor;
+        }
+        this.logLikelihood *= factor;
+    }
+
+    /**
+     * Get the number of (t, s) pairs with a nonzero count.
+     */
+    public long nonzeroTau() {
+        return countNonzero(this.nTS);
+    }
+
+    /**
+     * Get the number of alignment (i, j, l, m) entries with a nonzero count, none for Counts that
+     * do not keep alignment counts.
+     */
+    public long nonzeroDelta() {
+        return 0;
+    }
+
+    protected static long countNonzero(double[] counts) {
+        long nonzero = 0;
+        for (double count : counts) {
+            if (count != 0.0) {
+                nonzero++;
+            }
+        }
+        return nonzero;
     }
 
 }
@@ -6,6 +6,10 @@ import java.util.function.Function;
 /**
  * Default Dictionary Data Structure - loosely based on Python's defaultdict object.
  *
+ * Note that get inserts the default value of every missing key, so read-only probes grow the
+ * map. Lookup tables of primitive values should use IntDoubleMap, LongDoubleMap or
+ * ObjectDoubleMap instead, whose reads never insert.
+ *
  * Created by Sidd Karamcheti on 3/7/16.
  */
 public class DefaultDict<K, V> extends HashMap<K, V> {
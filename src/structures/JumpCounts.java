@@ -0,0 +1,76 @@
+package structures;
+
+/**
+ * Jump Counts data structure for keeping track of jump width values during EM for the HMM
+ * alignment model.
+ */
+public class JumpCounts extends Counts {
+    /* Count of jumps of width d between consecutive alignments, indexed nJump[d + maxJump] */
+    public final double[] nJump;
+    protected final int maxJump;
+
+    /**
+     * JumpCounts constructor.
+     *
+     * @param targets Number of target words (rows of tau).
+     * @param sources Number of source words (columns of tau).
+     * @param maxJump Widest jump counted, in either direction (as in the JumpTable).
+     */
+    public JumpCounts(int targets, int sources, int maxJump) {
+        super(targets, sources);
+        this.maxJump = maxJump;
+        this.nJump = new double[2 * maxJump + 1];
+    }
+
+    public void updateJump(double count, int d) {
+        this.nJump[d + this.maxJump] += count;
+    }
+
+    /**
+     * Get the count of jumps of width d, none for jumps wider than maxJump.
+     */
+    public double getJump(int d) {
+        return d < -this.maxJump || d > this.maxJump ? 0.0 : this.nJump[d + this.maxJump];
+    }
+
+    public int getMaxJump() {
+        return this.maxJump;
+    }
+
+    @Override
+    public void merge(Counts other) {
+        super.merge(other);
+        JumpCounts counts = (JumpCounts) other;
+        for (int k = 0; k < this.nJump.length; k++) {
+            this.nJump[k] += counts.nJump[k];
+        }
+    }
+
+    /**
+     * Also adds the jump counts, to a structure counting jumps at least as wide.
+     */
+    @Override
+    public void addTo(Counts target) {
+        super.addTo(target);
+        JumpCounts counts = (JumpCounts) target;
+        for (int d = -this.maxJump; d <= this.maxJump; d++) {
+            counts.updateJump(this.getJump(d), d);
+        }
+    }
+
+    @Override
+    public void scale(double factor) {
+        super.scale(factor);
+        for (int k = 0; k < this.nJump.length; k++) {
+            this.nJump[k] *= factor;
+        }
+    }
+
+    /**
+     * Counts the jump widths with a nonzero count, the HMM's alignment parameters.
+     */
+    @Override
+    public long nonzeroDelta() {
+        return countNonzero(this.nJump);
+    }
+}
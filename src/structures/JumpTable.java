@@ -0,0 +1,97 @@
+package structures;
+
+import java.util.Arrays;
+
+/**
+ * Jump width table of an HMM alignment model, backed by a single primitive array: c(d) for every
+ * jump d = i - i' in { -maxJump, ... maxJump } between the positions of consecutive alignments.
+ * Unlike an AlignmentTable, its size only depends on the longest sentence, not on every
+ * combination of sentence lengths.
+ *
+ * Lookups of wider jumps return the table's default value.
+ */
+public class JumpTable {
+    protected final int maxJump;
+    protected final double defaultValue;
+    protected final double[] values;
+
+    /**
+     * Instantiate a JumpTable, with every entry set to an initial value.
+     *
+     * @param maxJump Widest jump stored, in either direction.
+     * @param initialValue Value every jump starts with.
+     * @param defaultValue Value returned for jumps wider than maxJump.
+     */
+    public JumpTable(int maxJump, double initialValue, double defaultValue) {
+        this.maxJump = Math.max(maxJump, 0);
+        this.defaultValue = defaultValue;
+        this.values = new double[2 * this.maxJump + 1];
+        Arrays.fill(this.values, initialValue);
+    }
+
+    /**
+     * Get the flat index of jump d.
+     *
+     * @return Index into the table, or -1 if the jump is not stored.
+     */
+    public int index(int d) {
+        return d < -this.maxJump || d > this.maxJump ? -1 : d + this.maxJump;
+    }
+
+    /**
+     * Get the weight of jump d.
+     *
+     * @return c(d), or the default value for jumps wider than maxJump.
+     */
+    public double get(int d) {
+        int index = this.index(d);
+        return index == -1 ? this.defaultValue : this.values[index];
+    }
+
+    /**
+     * Set the weight of jump d.
+     */
+    public void set(int d, double value) {
+        int index = this.index(d);
+        if (index == -1) {
+            throw new IllegalArgumentException("No jump entry for width " + d);
+        }
+        this.values[index] = value;
+    }
+
+    /**
+     * Build a copy of this table storing jumps up to maxJump (at least this table's), keeping the
+     * value of every existing entry.
+     *
+     * @param maxJump Widest jump stored by the copy.
+     * @param initialValue Value every new jump starts with.
+     * @return Grown table.
+     */
+    public JumpTable grow(int maxJump, double initialValue) {
+        JumpTable grown = new JumpTable(Math.max(maxJump, this.maxJump), initialValue, this.defaultValue);
+        System.arraycopy(this.values, 0, grown.values, grown.maxJump - this.maxJump, this.values.length);
+        return grown;
+    }
+
+    /**
+     * Build a copy of this table.
+     */
+    public JumpTable copy() {
+        return this.grow(this.maxJump, this.defaultValue);
+    }
+
+    public int getMaxJump() {
+        return this.maxJump;
+    }
+
+    public double getDefaultValue() {
+        return this.defaultValue;
+    }
+
+    /**
+     * Get the number of jumps stored in the table.
+     */
+    public int size() {
+        return this.values.length;
+    }
+}
@@ -0,0 +1,203 @@
+package structures;
+
+/**
+ * Open addressing (linear probing) map from primitive long keys to primitive double values. Unlike
+ * DefaultDict, reads never insert: getOrDefault leaves the map untouched for absent keys, and
+ * entries are only added by put and addTo. Nothing is boxed.
+ */
+public class LongDoubleMap {
+    protected static final int MIN_CAPACITY = 8;
+
+    protected long[] keys;
+    protected double[] values;
+    protected boolean[] used;
+    protected int size;
+
+    /**
+     * Instantiate an empty LongDoubleMap.
+     */
+    public LongDoubleMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Instantiate an empty LongDoubleMap, sized to hold the given number of entries without resizing.
+     *
+     * @param expectedSize Expected number of entries.
+     */
+    public LongDoubleMap(int expectedSize) {
+        this.allocate(IntDoubleMap.capacityFor(expectedSize));
+    }
+
+    /**
+     * Build a copy of the map.
+     */
+    public LongDoubleMap copy() {
+        LongDoubleMap copy = new LongDoubleMap(this.size());
+        this.forEach(copy::put);
+        return copy;
+    }
+
+    /**
+     * Get the value of a key, without inserting it when absent.
+     *
+     * @param key Key to look up.
+     * @param defaultValue Value returned if the key is absent.
+     * @return Value of the key, or defaultValue.
+     */
+    public double getOrDefault(long key, double defaultValue) {
+        int slot = this.find(key);
+        return slot < 0 ? defaultValue : this.values[slot];
+    }
+
+    public boolean containsKey(long key) {
+        return this.find(key) >= 0;
+    }
+
+    /**
+     * Set the value of a key, inserting it if absent.
+     */
+    public void put(long key, double value) {
+        int slot = this.insert(key);
+        this.values[slot] = value;
+    }
+
+    /**
+     * Add to the value of a key, inserting it with the increment as value if absent.
+     *
+     * @param key Key to update.
+     * @param increment Amount to add.
+     * @return New value of the key.
+     */
+    public double addTo(long key, double increment) {
+        int slot = this.insert(key);
+        this.values[slot] += increment;
+        return this.values[slot];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the keys of the map, in no particular order.
+     */
+    public long[] keys() {
+        long[] keys = new long[this.size];
+        int k = 0;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.used[slot]) {
+                keys[k++] = this.keys[slot];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Call the consumer on every entry of the map, in no particular order.
+     */
+    public void forEach(Consumer consumer) {
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.used[slot]) {
+                consumer.accept(this.keys[slot], this.values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Get the slot of a key, or -1 if it is absent.
+     */
+    protected int find(long key) {
+        int mask = this.keys.length - 1;
+        for (int slot = hash(key) & mask; this.used[slot]; slot = (slot + 1) & mask) {
+            if (this.keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the slot of a key, inserting it with value 0 if it is absent.
+     */
+    protected int insert(long key) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; this.used[slot]; slot = (slot + 1) & mask) {
+            if (this.keys[slot] == key) {
+                return slot;
+            }
+        }
+        if (2 * (this.size + 1) > this.keys.length) {
+            this.resize(2 * this.keys.length);
+            return this.insert(key);
+        }
+        this.used[slot] = true;
+        this.keys[slot] = key;
+        this.values[slot] = 0.0;
+        this.size++;
+        return slot;
+    }
+
+    protected void resize(int capacity) {
+        long[] oldKeys = this.keys;
+        double[] oldValues = this.values;
+        boolean[] oldUsed = this.used;
+        this.allocate(capacity);
+        int mask = capacity - 1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldUsed[old]) {
+                int slot = hash(oldKeys[old]) & mask;
+                while (this.used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                this.used[slot] = true;
+                this.keys[slot] = oldKeys[old];
+                this.values[slot] = oldValues[old];
+                this.size++;
+            }
+        }
+    }
+
+    protected void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new double[capacity];
+        this.used = new boolean[capacity];
+        this.size = 0;
+    }
+
+    protected static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Pack two ints into a long key, e.g. the (l, m) sentence lengths of the length prior.
+     */
+    public static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    public static int high(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int low(long key) {
+        return (int) key;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        this.forEach((key, value) -> sb.append(sb.length() > 1 ? ", " : "").append(key).append('=').append(value));
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Consumer of the entries of an LongDoubleMap.
+     */
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(long key, double value);
+    }
+}
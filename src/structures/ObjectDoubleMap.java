@@ -0,0 +1,186 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Open addressing (linear probing) map from object keys to primitive double values. Unlike
+ * DefaultDict, reads never insert: getOrDefault leaves the map untouched for absent keys, and
+ * entries are only added by put and addTo. Values are not boxed. Keys must not be null.
+ *
+ * @param <K> Type of the keys.
+ */
+public class ObjectDoubleMap<K> {
+    protected static final int MIN_CAPACITY = 8;
+
+    /* Keys by slot, null for empty slots */
+    protected Object[] keys;
+    protected double[] values;
+    protected int size;
+
+    /**
+     * Instantiate an empty ObjectDoubleMap.
+     */
+    public ObjectDoubleMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Instantiate an empty ObjectDoubleMap, sized to hold the given number of entries without
+     * resizing.
+     *
+     * @param expectedSize Expected number of entries.
+     */
+    public ObjectDoubleMap(int expectedSize) {
+        this.allocate(IntDoubleMap.capacityFor(expectedSize));
+    }
+
+    /**
+     * Build a copy of the map, sharing its keys.
+     */
+    public ObjectDoubleMap<K> copy() {
+        ObjectDoubleMap<K> copy = new ObjectDoubleMap<>(this.size());
+        this.forEach(copy::put);
+        return copy;
+    }
+
+    /**
+     * Get the value of a key, without inserting it when absent.
+     *
+     * @param key Key to look up.
+     * @param defaultValue Value returned if the key is absent.
+     * @return Value of the key, or defaultValue.
+     */
+    public double getOrDefault(Object key, double defaultValue) {
+        int slot = this.find(key);
+        return slot < 0 ? defaultValue : this.values[slot];
+    }
+
+    public boolean containsKey(Object key) {
+        return this.find(key) >= 0;
+    }
+
+    /**
+     * Set the value of a key, inserting it if absent.
+     */
+    public void put(K key, double value) {
+        int slot = this.insert(key);
+        this.values[slot] = value;
+    }
+
+    /**
+     * Add to the value of a key, inserting it with the increment as value if absent.
+     *
+     * @param key Key to update.
+     * @param increment Amount to add.
+     * @return New value of the key.
+     */
+    public double addTo(K key, double increment) {
+        int slot = this.insert(key);
+        this.values[slot] += increment;
+        return this.values[slot];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the keys of the map, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<K> keys() {
+        List<K> keys = new ArrayList<>(this.size);
+        for (Object key : this.keys) {
+            if (key != null) {
+                keys.add((K) key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Call the consumer on every entry of the map, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjDoubleConsumer<? super K> consumer) {
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != null) {
+                consumer.accept((K) this.keys[slot], this.values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Get the slot of a key, or -1 if it is absent.
+     */
+    protected int find(Object key) {
+        int mask = this.keys.length - 1;
+        for (int slot = hash(key) & mask; this.keys[slot] != null; slot = (slot + 1) & mask) {
+            if (this.keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the slot of a key, inserting it with value 0 if it is absent.
+     */
+    protected int insert(K key) {
+        if (key == null) {
+            throw new NullPointerException("ObjectDoubleMap does not support null keys");
+        }
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; this.keys[slot] != null; slot = (slot + 1) & mask) {
+            if (this.keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        if (2 * (this.size + 1) > this.keys.length) {
+            this.resize(2 * this.keys.length);
+            return this.insert(key);
+        }
+        this.keys[slot] = key;
+        this.values[slot] = 0.0;
+        this.size++;
+        return slot;
+    }
+
+    protected void resize(int capacity) {
+        Object[] oldKeys = this.keys;
+        double[] oldValues = this.values;
+        this.allocate(capacity);
+        int mask = capacity - 1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldKeys[old] != null) {
+                int slot = hash(oldKeys[old]) & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[old];
+                this.values[slot] = oldValues[old];
+                this.size++;
+            }
+        }
+    }
+
+    protected void allocate(int capacity) {
+        this.keys = new Object[capacity];
+        this.values = new double[capacity];
+        this.size = 0;
+    }
+
+    protected static int hash(Object key) {
+        return key == null ? 0 : IntDoubleMap.hash(key.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        this.forEach((key, value) -> sb.append(sb.length() > 1 ? ", " : "").append(key).append('=').append(value));
+        return sb.append('}').toString();
+    }
+}
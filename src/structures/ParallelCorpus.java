@@ -10,16 +10,20 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Define a Parallel Corpus as two sets of aligned sentences in different languages.
  *
+ * The corpus keeps CorpusStatistics (length histograms, word frequencies, distinct target
+ * expressions) up to date on insert and remove, so they never require a scan of the corpus.
+ * Sentences must be added and removed through those methods, not through getSentences().
+ *
  * Created by Sidd Karamcheti on 3/7/16.
  */
 public class ParallelCorpus {
     protected int maxTargetLength;
     public List<AlignedSent> corpus;
+    protected CorpusStatistics statistics;
 
     /**
      * Build ParallelCorpus from file paths to source and target corpuses.
@@ -30,6 +34,7 @@ public class ParallelCorpus {
     public ParallelCorpus(String sourcePath, String targetPath) {
         this.maxTargetLength = 0;
         this.corpus = new ArrayList<>();
+        this.statistics = new CorpusStatistics();
         try(BufferedReader brs = new BufferedReader(new FileReader(sourcePath));
             BufferedReader brt = new BufferedReader(new FileReader(targetPath))){
             String sourceLine;
@@ -39,6 +44,7 @@ public class ParallelCorpus {
                 LanguageExpression targetExpr = new MachineLanguage(Arrays.asList(targetLine.split(" ")));
                 AlignedSent alignedSent = new AlignedSent(sourceExpr, targetExpr);
                 this.corpus.add(alignedSent);
+                this.statistics.add(alignedSent);
                 this.maxTargetLength += Math.max(maxTargetLength, targetLine.split(" ").length);
             }
         } catch (FileNotFoundException e) {
@@ -48,6 +54,54 @@ public class ParallelCorpus {
         }
     }
 
+    /**
+     * Build ParallelCorpus from a list of aligned sentences. The list is copied, so the new
+     * corpus can be modified independently of it.
+     *
+     * @param sentences AlignedSentences making up the corpus
+     */
+    public ParallelCorpus(List<AlignedSent> sentences) {
+        this.maxTargetLength = 0;
+        this.corpus = new ArrayList<>(sentences);
+        this.statistics = new CorpusStatistics();
+        for (AlignedSent sent : sentences) {
+            this.maxTargetLength = Math.max(this.maxTargetLength, sent.getTargetWords().size());
+            this.statistics.add(sent);
+        }
+    }
+
+    /**
+     * Build an immutable view of this corpus that excludes the sentences at the given indices
+     * (e.g. the held-out sentences of a cross-validation fold). The view does not change when
+     * this corpus does, and throws UnsupportedOperationException on remove and insert.
+     *
+     * @param heldOut Indices of the sentences to exclude
+     * @return Immutable corpus of the remaining sentences, in their original order
+     */
+    public ParallelCorpus without(int... heldOut) {
+        boolean[] excluded = new boolean[this.corpus.size()];
+        for (int index : heldOut) {
+            excluded[index] = true;
+        }
+        // Start from a copy of the statistics and count the held-out sentences out, rather than
+        // recounting the remaining ones
+        ParallelCorpus view = new ParallelCorpus(Collections.emptyList());
+        view.statistics = this.statistics.copy();
+        List<AlignedSent> remaining = new ArrayList<>(this.corpus.size());
+        for (int i = 0; i < this.corpus.size(); i++) {
+            AlignedSent sent = this.corpus.get(i);
+            if (excluded[i]) {
+                view.statistics.remove(sent);
+            }
+            else {
+                remaining.add(sent);
+                view.maxTargetLength = Math.max(view.maxTargetLength, sent.getTargetWords().size());
+            }
+        }
+        view.corpus = Collections.unmodifiableList(remaining);
+        return view;
+    }
+
     /**
      * Get size (number of sentences) in the given Parallel Corpus.
      *
@@ -71,7 +125,9 @@ public class ParallelCorpus {
      * @param index Index to remove sentence from in Corpus.
      */
     public AlignedSent remove(int index){
-        return this.corpus.remove(index);
+        AlignedSent removed = this.corpus.remove(index);
+        this.statistics.remove(removed);
+        return removed;
     }
 
     /**
@@ -81,6 +137,7 @@ public class ParallelCorpus {
      */
     public void insert(AlignedSent sent, int index){
         this.corpus.add(index, sent);
+        this.statistics.add(sent);
     }
 
     /**
@@ -96,12 +153,20 @@ public class ParallelCorpus {
      * source language sentences of length m
      */
     public double computeLengthEstimates(int l, int m){
-        List<AlignedSent> filtered = this.corpus.stream().filter(s -> s.getSourceWords().size() == m).collect(Collectors.toList());
-        long total = filtered.size();
-        long lCount = filtered.stream().filter(s -> s.getTargetWords().size() == l).count();
+        long total = this.statistics.getSourceLengthCount(m);
+        long lCount = this.statistics.getLengthCount(l, m);
         return (double) (lCount + 1) / total;
     }
 
+    /**
+     * Get the statistics of the sentences currently in the corpus.
+     *
+     * @return Statistics, updated as sentences are inserted and removed.
+     */
+    public CorpusStatistics getStatistics() {
+        return this.statistics;
+    }
+
     /**
      * Returns the list of AlignedSentences in this corpus
      *
@@ -0,0 +1,65 @@
+package structures;
+
+/**
+ * Summary of a pruning pass over a translation table: how many entries held a probability above
+ * the table's floor before and after pruning, and the memory needed to store them.
+ */
+public class PruningReport {
+    protected final long cells;
+    protected final long entriesBefore;
+    protected final long entriesAfter;
+
+    /**
+     * Instantiate a PruningReport.
+     *
+     * @param cells Number of (t, s) cells of the dense table.
+     * @param entriesBefore Number of entries above the floor before pruning.
+     * @param entriesAfter Number of entries above the floor after pruning.
+     */
+    public PruningReport(long cells, long entriesBefore, long entriesAfter) {
+        this.cells = cells;
+        this.entriesBefore = entriesBefore;
+        this.entriesAfter = entriesAfter;
+    }
+
+    public long getCells() {
+        return this.cells;
+    }
+
+    public long getEntriesBefore() {
+        return this.entriesBefore;
+    }
+
+    public long getEntriesAfter() {
+        return this.entriesAfter;
+    }
+
+    /**
+     * Get the fraction of entries above the floor that were kept.
+     */
+    public double getKeptFraction() {
+        return this.entriesBefore == 0 ? 1.0 : (double) this.entriesAfter / (double) this.entriesBefore;
+    }
+
+    /**
+     * Get the size of the dense table, in bytes.
+     */
+    public long getDenseBytes() {
+        return 8 * this.cells;
+    }
+
+    /**
+     * Get the size of the sparse rows of the kept entries (a column id and a value per entry), in
+     * bytes.
+     */
+    public long getSparseBytes() {
+        return 12 * this.entriesAfter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("kept %d of %d entries (%.1f%%) out of %d cells, sparse %d bytes vs dense %d bytes",
+                this.entriesAfter, this.entriesBefore, 100.0 * this.getKeptFraction(), this.cells,
+                this.getSparseBytes(), this.getDenseBytes());
+    }
+}
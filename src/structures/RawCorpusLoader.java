@@ -0,0 +1,135 @@
+package structures;
+
+import language.MachineLanguage;
+import language.NaturalLanguage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds a ParallelCorpus straight from the raw labeled data (data/raw), replacing the
+ * parser/parser.py + ParallelCorpus(sourcePath, targetPath) round trip through data/corpus.
+ *
+ * The raw data is a root directory of dataset directories, each holding one two-line file per
+ * example: the machine command with its arguments on the first line, the English command on the
+ * second. Only the propositional functions of the machine command are kept (the tokens with an
+ * uppercase letter, e.g. "agentInRoom agent room isOrange room" becomes "agentInRoom isOrange"),
+ * matching the corpus files.
+ *
+ * Dataset directories are listed, and examples read, in parallel; the resulting corpus is in path
+ * order, so it does not depend on the file system's listing order.
+ */
+public class RawCorpusLoader {
+    /* Dataset directory filters: Turk collected data (data/corpus/turk_*) */
+    public static final Predicate<String> TURK = directory -> directory.contains("Turk");
+    /* Simple (expert) data, including the combined and double color datasets (data/corpus/expert_*) */
+    public static final Predicate<String> SIMPLE = directory -> directory.startsWith("simple");
+    /* Combined simple data only */
+    public static final Predicate<String> COMBINED = directory -> directory.endsWith("Combined");
+    /* Every dataset (data/corpus/full_*) */
+    public static final Predicate<String> ALL = directory -> true;
+
+    protected static final String DS_STORE = ".DS_Store";
+
+    /**
+     * Load the examples of every dataset directory under root whose name passes the filter.
+     *
+     * @param root Root of the raw data, e.g. data/raw.
+     * @param directoryFilter Filter on the names of the dataset directories, e.g. TURK.
+     * @return In-memory corpus of the examples, in path order.
+     * @throws IOException If a directory cannot be listed, or an example cannot be read or is not
+     *                     a two-line file.
+     */
+    public static ParallelCorpus load(Path root, Predicate<String> directoryFilter) throws IOException {
+        List<Path> directories;
+        try (Stream<Path> listing = Files.list(root)) {
+            directories = listing
+                    .filter(Files::isDirectory)
+                    .filter(directory -> directoryFilter.test(directory.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+
+        try {
+            List<Path> examples = directories.parallelStream()
+                    .flatMap(RawCorpusLoader::listExamples)
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<AlignedSent> sentences = examples.parallelStream()
+                    .map(RawCorpusLoader::readExample)
+                    .collect(Collectors.toList());
+            return new ParallelCorpus(sentences);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Load the examples of every dataset directory under root whose name passes the filter.
+     *
+     * @param root Path to the root of the raw data, e.g. "data/raw".
+     * @param directoryFilter Filter on the names of the dataset directories, e.g. TURK.
+     * @return In-memory corpus of the examples, in path order.
+     * @throws IOException If the raw data cannot be read.
+     */
+    public static ParallelCorpus load(String root, Predicate<String> directoryFilter) throws IOException {
+        return load(Paths.get(root), directoryFilter);
+    }
+
+    /**
+     * List the example files of a dataset directory, skipping .DS_Store files.
+     */
+    protected static Stream<Path> listExamples(Path directory) {
+        try (Stream<Path> listing = Files.list(directory)) {
+            List<Path> examples = listing
+                    .filter(Files::isRegularFile)
+                    .filter(example -> !example.getFileName().toString().equals(DS_STORE))
+                    .collect(Collectors.toList());
+            return examples.stream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read a two-line example file into an AlignedSent of its English and machine commands.
+     */
+    protected static AlignedSent readExample(Path example) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(example, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (lines.size() != 2) {
+            throw new UncheckedIOException(new IOException("Expected 2 lines in " + example + ", got " + lines.size()));
+        }
+        return new AlignedSent(new NaturalLanguage(Arrays.asList(lines.get(1).split(" "))),
+                new MachineLanguage(propositionalFunctions(lines.get(0))));
+    }
+
+    /**
+     * Keep the propositional functions of a machine command, dropping their arguments.
+     *
+     * @param command Machine command, e.g. "agentInRoom agent room isOrange room".
+     * @return Propositional functions, e.g. [agentInRoom, isOrange].
+     */
+    public static List<String> propositionalFunctions(String command) {
+        List<String> propFuncs = new ArrayList<>();
+        for (String token : command.split(" ")) {
+            if (!token.equals(token.toLowerCase())) {
+                propFuncs.add(token);
+            }
+        }
+        return propFuncs;
+    }
+}
@@ -0,0 +1,380 @@
+package structures;
+
+import java.util.Arrays;
+
+/**
+ * Dense translation (Tau) probability table, backed by a single primitive array. Rows are indexed
+ * by target word id t, columns by source word id s, so that tau(t | s) lives at t * columns + s.
+ *
+ * The String methods are a thin adapter over the id based ones, for callers that do not hold the
+ * vocabularies' ids.
+ *
+ * Once pruned (see prune), the table also keeps the entries above its default value as sparse
+ * rows, so that column products only visit them. Any later update drops the sparse rows.
+ *
+ * For log-space decoding, the table also keeps the logarithm of every entry (see precomputeLogs),
+ * which is likewise dropped by any later update.
+ *
+ * Column products and sums visit the table row by row, through a ColumnKernel, so that the SIMD
+ * kernel can process many columns (candidate words) at once; every kernel returns the same values.
+ */
+public class TauTable {
+    protected final Vocabulary targets;
+    protected final Vocabulary sources;
+    protected final double defaultValue;
+    protected final int rows;
+    protected final int columns;
+    protected final double[] values;
+    /* Entries above the default value, by row, or null unless pruned since the last update */
+    protected SparseRows sparse;
+    /* Logarithm of every entry, or null unless computed since the last update */
+    protected volatile double[] logValues;
+    /* Arithmetic over whole rows (see ColumnKernels) */
+    protected ColumnKernel kernel = ColumnKernels.get();
+
+    /**
+     * Instantiate a TauTable over the given vocabularies, with every entry set to an initial value.
+     *
+     * @param targets Vocabulary of the target words (rows).
+     * @param sources Vocabulary of the source words (columns).
+     * @param initialValue Value every known (t, s) entry starts with.
+     * @param defaultValue Value returned for words outside of the vocabularies.
+     */
+    public TauTable(Vocabulary targets, Vocabulary sources, double initialValue, double defaultValue) {
+        this.targets = targets;
+        this.sources = sources;
+        this.defaultValue = defaultValue;
+        this.rows = targets.size();
+        this.columns = sources.size();
+        this.values = new double[this.rows * this.columns];
+        Arrays.fill(this.values, initialValue);
+    }
+
+    /**
+     * Get the probability of target word t given source word s.
+     *
+     * @param t Target word id (or Vocabulary.UNKNOWN).
+     * @param s Source word id (or Vocabulary.UNKNOWN).
+     * @return tau(t | s), or the default value if either word is unknown.
+     */
+    public double get(int t, int s) {
+        if (t < 0 || s < 0) {
+            return this.defaultValue;
+        }
+        return this.values[t * this.columns + s];
+    }
+
+    /**
+     * Set the probability of target word t given source word s.
+     *
+     * @param t Target word id.
+     * @param s Source word id.
+     * @param value New value of tau(t | s).
+     */
+    public void set(int t, int s, double value) {
+        this.values[t * this.columns + s] = value;
+        this.sparse = null;
+        this.logValues = null;
+    }
+
+    /**
+     * String adapter for get(int, int).
+     *
+     * @param t Target word.
+     * @param s Source word.
+     * @return tau(t | s), or the default value if either word is unknown.
+     */
+    public double get(String t, String s) {
+        return this.get(this.targets.id(t), this.sources.id(s));
+    }
+
+    /**
+     * String adapter for set(int, int, double).
+     *
+     * @param t Target word.
+     * @param s Source word.
+     * @param value New value of tau(t | s).
+     */
+    public void put(String t, String s, double value) {
+        int tId = this.targets.id(t);
+        int sId = this.sources.id(s);
+        if (tId == Vocabulary.UNKNOWN || sId == Vocabulary.UNKNOWN) {
+            throw new IllegalArgumentException("Unknown word pair: " + t + ", " + s);
+        }
+        this.set(tId, sId, value);
+    }
+
+    /**
+     * Set every known entry of the table to the given value.
+     *
+     * @param value Value to fill the table with.
+     */
+    public void fill(double value) {
+        Arrays.fill(this.values, value);
+        this.sparse = null;
+        this.logValues = null;
+    }
+
+    /**
+     * Build a copy of this table over larger vocabularies (e.g. once new words have been added to
+     * them), keeping the value of every existing entry. Words keep their ids, so the new entries
+     * are the rows and columns past this table's.
+     *
+     * @param targets Vocabulary of the target words, extending this table's.
+     * @param sources Vocabulary of the source words, extending this table's.
+     * @param initialValue Value every new (t, s) entry starts with.
+     * @return Grown table, not pruned.
+     */
+    public TauTable grow(Vocabulary targets, Vocabulary sources, double initialValue) {
+        TauTable grown = new TauTable(targets, sources, initialValue, this.defaultValue);
+        grown.kernel = this.kernel;
+        for (int t = 0; t < this.rows(); t++) {
+            System.arraycopy(this.values, t * this.columns, grown.values, t * grown.columns, this.columns);
+        }
+        return grown;
+    }
+
+    /**
+     * Build a copy of this table, over copies of its vocabularies (see Vocabulary.copy). The copy
+     * keeps the sparse rows of a pruned table and the logarithms of its entries, which are never
+     * modified once built.
+     *
+     * @param targets Vocabulary of the target words, with the same ids as this table's.
+     * @param sources Vocabulary of the source words, with the same ids as this table's.
+     * @return Copy of the table.
+     */
+    public TauTable copy(Vocabulary targets, Vocabulary sources) {
+        TauTable copy = this.grow(targets, sources, this.defaultValue);
+        copy.sparse = this.sparse;
+        copy.logValues = this.logValues;
+        return copy;
+    }
+
+    /**
+     * Compute, for every column s, the product over the given rows of tau(t | s). Rows may repeat
+     * and may be Vocabulary.UNKNOWN (contributing the default value).
+     *
+     * @param rows Target word ids.
+     * @return Products, indexed by source word id.
+     */
+    public double[] columnProducts(int[] rows) {
+        double[] products = new double[this.columns];
+        SparseRows sparse = this.sparse;
+        if (sparse == null) {
+            // Multiply in whole rows, which are contiguous, so the kernel can process many columns at once
+            Arrays.fill(products, 1.0);
+            for (int t : rows) {
+                if (t < 0) {
+                    this.kernel.scale(products, this.defaultValue);
+                }
+                else {
+                    this.kernel.multiply(products, this.values, t * this.columns);
+                }
+            }
+            return products;
+        }
+
+        // Multiply in the entries of each row, then the default value once per row that had none
+        int[] hits = new int[this.columns];
+        Arrays.fill(products, 1.0);
+        for (int t : rows) {
+            if (t < 0) {
+                continue;
+            }
+            for (int k = sparse.rowStart[t]; k < sparse.rowStart[t + 1]; k++) {
+                products[sparse.columns[k]] *= sparse.values[k];
+                hits[sparse.columns[k]]++;
+            }
+        }
+        for (int s = 0; s < this.columns; s++) {
+            if (hits[s] < rows.length) {
+                products[s] *= Math.pow(this.defaultValue, rows.length - hits[s]);
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Compute, for every column s, the sum over the given rows of log tau(t | s), i.e. the logarithm
+     * of columnProducts(rows), without ever underflowing. Reads the precomputed logarithms, so no
+     * logarithm is taken per entry.
+     *
+     * @param rows Target word ids, which may repeat and may be Vocabulary.UNKNOWN.
+     * @return Sums, indexed by source word id.
+     */
+    public double[] logColumnSums(int[] rows) {
+        double[] logValues = this.precomputeLogs();
+        double logDefault = Math.log(this.defaultValue);
+        double[] sums = new double[this.columns];
+        for (int t : rows) {
+            if (t < 0) {
+                this.kernel.shift(sums, logDefault);
+            }
+            else {
+                this.kernel.add(sums, logValues, t * this.columns);
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Compute the logarithm of every entry, unless already computed since the last update. Taking
+     * them once a model is trained (e.g. when it is frozen into a snapshot) keeps logarithms out
+     * of decoding altogether.
+     *
+     * @return Logarithms, laid out like the values.
+     */
+    public double[] precomputeLogs() {
+        double[] logValues = this.logValues;
+        if (logValues == null) {
+            logValues = new double[this.values.length];
+            for (int k = 0; k < logValues.length; k++) {
+                logValues[k] = Math.log(this.values[k]);
+            }
+            this.logValues = logValues;
+        }
+        return logValues;
+    }
+
+    /**
+     * Prune the table: in every row t, keep the entries of at least threshold, and of those only
+     * the topK largest. Every other entry is set to the default value (the table's probability
+     * floor), and the kept entries of each column are renormalized, so that they carry the mass the
+     * column had above the floor before pruning. The kept entries are then indexed as sparse rows.
+     *
+     * @param threshold Smallest probability kept (0 to keep every entry above the default value).
+     * @param topK Maximum number of entries kept per row (0 for no limit).
+     * @return Report of how many entries were kept.
+     */
+    public PruningReport prune(double threshold, int topK) {
+        int rows = this.rows();
+        long before = 0;
+        boolean[] kept = new boolean[this.values.length];
+        Integer[] candidates = new Integer[this.columns];
+        for (int t = 0; t < rows; t++) {
+            int row = t * this.columns;
+            int count = 0;
+            for (int s = 0; s < this.columns; s++) {
+                double value = this.values[row + s];
+                if (value > this.defaultValue) {
+                    before++;
+                    if (value >= threshold) {
+                        candidates[count++] = s;
+                    }
+                }
+            }
+            if (topK > 0 && count > topK) {
+                // Largest values first, ties broken by column id
+                Arrays.sort(candidates, 0, count, (a, b) -> {
+                    int cmp = Double.compare(this.values[row + b], this.values[row + a]);
+                    return cmp != 0 ? cmp : Integer.compare(a, b);
+                });
+                count = topK;
+            }
+            for (int k = 0; k < count; k++) {
+                kept[row + candidates[k]] = true;
+            }
+        }
+
+        // Give the mass of each column's dropped entries to its kept entries, proportionally
+        double[] columnMass = new double[this.columns];
+        double[] keptMass = new double[this.columns];
+        for (int k = 0; k < this.values.length; k++) {
+            if (this.values[k] > this.defaultValue) {
+                columnMass[k % this.columns] += this.values[k];
+            }
+            if (kept[k]) {
+                keptMass[k % this.columns] += this.values[k];
+            }
+        }
+        long after = 0;
+        for (int k = 0; k < this.values.length; k++) {
+            if (kept[k]) {
+                int s = k % this.columns;
+                if (keptMass[s] != columnMass[s]) {
+                    this.values[k] *= columnMass[s] / keptMass[s];
+                }
+                after++;
+            }
+            else {
+                this.values[k] = this.defaultValue;
+            }
+        }
+
+        this.sparse = new SparseRows(this.values, rows, this.columns, this.defaultValue);
+        this.logValues = null;
+        return new PruningReport(this.values.length, before, after);
+    }
+
+    /**
+     * Set the kernel column products and sums are computed with, e.g. ColumnKernels.scalar() to
+     * compare against the SIMD kernel.
+     *
+     * @param kernel Kernel to compute with.
+     */
+    public void setKernel(ColumnKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    public ColumnKernel getKernel() {
+        return this.kernel;
+    }
+
+    /**
+     * Check whether the table is pruned, i.e. indexed as sparse rows.
+     */
+    public boolean isPruned() {
+        return this.sparse != null;
+    }
+
+    public Vocabulary getTargets() {
+        return this.targets;
+    }
+
+    public Vocabulary getSources() {
+        return this.sources;
+    }
+
+    public int rows() {
+        return this.rows;
+    }
+
+    public int columns() {
+        return this.columns;
+    }
+
+    /**
+     * Entries of a table above its default value, stored row by row (compressed sparse rows).
+     */
+    protected static class SparseRows {
+        /* Entries of row t are at [rowStart[t], rowStart[t + 1]) */
+        protected final int[] rowStart;
+        protected final int[] columns;
+        protected final double[] values;
+
+        protected SparseRows(double[] dense, int rows, int columns, double defaultValue) {
+            this.rowStart = new int[rows + 1];
+            int entries = 0;
+            for (double value : dense) {
+                if (value > defaultValue) {
+                    entries++;
+                }
+            }
+            this.columns = new int[entries];
+            this.values = new double[entries];
+            int k = 0;
+            for (int t = 0; t < rows; t++) {
+                this.rowStart[t] = k;
+                for (int s = 0; s < columns; s++) {
+                    double value = dense[t * columns + s];
+                    if (value > defaultValue) {
+                        this.columns[k] = s;
+                        this.values[k] = value;
+                        k++;
+                    }
+                }
+            }
+            this.rowStart[rows] = k;
+        }
+    }
+}
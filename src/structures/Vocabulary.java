@@ -0,0 +1,112 @@
+package structures;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vocabulary (word interner) that assigns each distinct word of a language a dense integer id, in
+ * order of first appearance. The ids are used to index the primitive probability tables of the
+ * IBM Models, so that training and decoding never hash a String in their inner loops.
+ */
+public class Vocabulary {
+    /* Id returned for words that are not part of the vocabulary */
+    public static final int UNKNOWN = -1;
+
+    protected final Map<String, Integer> ids;
+    protected final List<String> words;
+
+    /**
+     * Instantiate an empty Vocabulary.
+     */
+    public Vocabulary() {
+        this.ids = new HashMap<>();
+        this.words = new ArrayList<>();
+    }
+
+    /**
+     * Add a word to the vocabulary, if it is not already present.
+     *
+     * @param word Word to intern.
+     * @return Id of the word.
+     */
+    public int add(String word) {
+        Integer id = this.ids.get(word);
+        if (id == null) {
+            id = this.words.size();
+            this.ids.put(word, id);
+            this.words.add(word);
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a word.
+     *
+     * @param word Word to look up.
+     * @return Id of the word, or UNKNOWN if the word is not part of the vocabulary.
+     */
+    public int id(String word) {
+        Integer id = this.ids.get(word);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * Get the word with the given id.
+     *
+     * @param id Id of the word.
+     * @return Word interned under that id.
+     */
+    public String word(int id) {
+        return this.words.get(id);
+    }
+
+    /**
+     * Translate a list of words to their ids, mapping unseen words to UNKNOWN.
+     *
+     * @param words List of words to encode.
+     * @return Array of word ids, in the same order.
+     */
+    public int[] encode(List<String> words) {
+        int[] encoded = new int[words.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = this.id(words.get(i));
+        }
+        return encoded;
+    }
+
+    /**
+     * Map every id of this vocabulary to the id of the same word in another vocabulary.
+     *
+     * @param other Vocabulary to map into.
+     * @return Array indexed by the ids of this vocabulary, holding ids of the other (or UNKNOWN).
+     */
+    public int[] mapTo(Vocabulary other) {
+        int[] mapped = new int[this.words.size()];
+        for (int id = 0; id < mapped.length; id++) {
+            mapped[id] = other.id(this.words.get(id));
+        }
+        return mapped;
+    }
+
+    /**
+     * Build a copy of the vocabulary, with the same ids, that does not change when this one grows.
+     *
+     * @return Copy of the vocabulary.
+     */
+    public Vocabulary copy() {
+        Vocabulary copy = new Vocabulary();
+        this.words.forEach(copy::add);
+        return copy;
+    }
+
+    /**
+     * Get the number of words in the vocabulary.
+     *
+     * @return Size of the vocabulary.
+     */
+    public int size() {
+        return this.words.size();
+    }
+}